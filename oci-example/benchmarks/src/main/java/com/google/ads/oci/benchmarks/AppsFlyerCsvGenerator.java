@@ -0,0 +1,129 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.benchmarks;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Writes synthetic AppsFlyer raw data exports with the full width of a real export, a realistic share of install
+// events and click IDs, and quoted in-app event values and user agents.
+public class AppsFlyerCsvGenerator {
+    static final List<String> HEADER = Arrays.asList(
+            "Attributed Touch Type", "Attributed Touch Time", "Install Time", "Event Time", "Event Name", "Event Value",
+            "Event Revenue", "Event Revenue Currency", "Event Revenue USD", "Event Source", "Is Receipt Validated",
+            "Partner", "Media Source", "Channel", "Keywords", "Campaign", "Campaign ID", "Adset", "Adset ID", "Ad",
+            "Ad ID", "Ad Type", "Site ID", "Sub Site ID", "Sub Param 1", "Sub Param 2", "Sub Param 3", "Sub Param 4",
+            "Sub Param 5", "Cost Model", "Cost Value", "Cost Currency", "Contributor 1 Partner",
+            "Contributor 1 Media Source", "Contributor 1 Campaign", "Contributor 1 Touch Type",
+            "Contributor 1 Touch Time", "Region", "Country Code", "State", "City", "Postal Code", "DMA", "IP", "WIFI",
+            "Operator", "Carrier", "Language", "AppsFlyer ID", "Advertising ID", "IDFA", "Android ID",
+            "Customer User ID", "IMEI", "IDFV", "Platform", "Device Type", "OS Version", "App Version", "SDK Version",
+            "App ID", "App Name", "Bundle ID", "Is Retargeting", "Retargeting Conversion Type",
+            "Attribution Lookback", "Reengagement Window", "Is Primary Attribution", "User Agent", "HTTP Referrer",
+            "Original URL");
+    private static final String[] IN_APP_EVENTS = {"af_purchase", "af_complete_registration", "af_level_achieved",
+            "af_tutorial_completion", "af_add_to_cart"};
+    private static final char[] CLICK_ID_CHARS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789_-".toCharArray();
+    private static final double INSTALL_SHARE = 0.2;
+    private static final double CLICK_ID_SHARE = 0.7;
+    private static final long MINUTES_PER_EXPORT = 30 * 24 * 60;
+
+    public static void main(String[] args) throws IOException {
+        write(Paths.get(args[0]), Long.parseLong(args[1]), 42);
+    }
+
+    public static void write(Path file, long rows, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+             CSVPrinter printer = CSVFormat.DEFAULT.print(out)) {
+            printer.printRecord(HEADER);
+            List<String> row = new ArrayList<>(HEADER.size());
+            for (long i = 0; i < rows; i++) {
+                fillRow(row, random, i, rows);
+                printer.printRecord(row);
+                row.clear();
+            }
+        }
+    }
+
+    private static void fillRow(List<String> row, Random random, long index, long rows) {
+        boolean install = random.nextDouble() < INSTALL_SHARE;
+        String eventName = install ? "install" : IN_APP_EVENTS[random.nextInt(IN_APP_EVENTS.length)];
+        // Rows are in event time order over 30 days, as in a real export, so consecutive rows often share a minute.
+        long minute = index * MINUTES_PER_EXPORT / rows;
+        String eventTime = String.format("2023/5/%d %d:%d", 1 + minute / 1_440, minute / 60 % 24, minute % 60);
+        String eventValue = install ? String.valueOf(random.nextInt(100))
+                : "{\"af_revenue\":\"" + random.nextInt(100) + ".99\",\"af_content_id\":\"sku_" + random.nextInt(1000) + "\"}";
+        double clickId = random.nextDouble();
+        String gclid = clickId < CLICK_ID_SHARE * 0.8 ? "Cj0KCQjw" + randomId(random, 80) : "";
+        String wbraid = !gclid.isEmpty() || clickId >= CLICK_ID_SHARE ? "" : "CjkKCAjw" + randomId(random, 60);
+
+        for (String column : HEADER) {
+            switch (column) {
+                case "Event Time":
+                    row.add(eventTime);
+                    break;
+                case "Event Name":
+                    row.add(eventName);
+                    break;
+                case "Event Value":
+                    row.add(eventValue);
+                    break;
+                case "Event Revenue Currency":
+                    row.add("USD");
+                    break;
+                case "Sub Param 1":
+                    row.add(gclid);
+                    break;
+                case "Sub Param 3":
+                    row.add(wbraid);
+                    break;
+                case "Media Source":
+                    row.add("googleadwords_int");
+                    break;
+                case "User Agent":
+                    row.add("Mozilla/5.0 (Linux; Android 13; Pixel 7) AppleWebKit/537.36 (KHTML, like Gecko)");
+                    break;
+                case "AppsFlyer ID":
+                case "Advertising ID":
+                    row.add(randomId(random, 36));
+                    break;
+                default:
+                    row.add(random.nextInt(4) == 0 ? "" : column.toLowerCase().replace(' ', '_') + "_" + random.nextInt(100));
+            }
+        }
+    }
+
+    private static String randomId(Random random, int length) {
+        char[] id = new char[length];
+        for (int i = 0; i < length; i++) {
+            id[i] = CLICK_ID_CHARS[random.nextInt(CLICK_ID_CHARS.length)];
+        }
+        return new String(id);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.benchmarks;
+
+import com.google.ads.googleads.v13.services.UploadClickConversionsRequest;
+import com.google.ads.googleads.v13.utils.ResourceNames;
+import com.google.ads.oci.models.ConversionRecord;
+import com.google.ads.oci.service.ConversionColumns;
+import com.google.ads.oci.service.RequestAssembler;
+import com.google.ads.oci.service.UploadBatch;
+
+// Builds requests the way the uploader does once rows are routed: each row is added to the columns of its batch with
+// its serialized size, and a full batch is assembled into a request by the RequestAssembler.
+final class BatchRequests {
+    private final RequestAssembler assembler = new RequestAssembler();
+    private final long customerId;
+    private final String conversionAction;
+    private final int batchSize;
+    private ConversionColumns columns;
+    private long sequence;
+
+    BatchRequests(long customerId, long conversionActionId, int batchSize) {
+        this.customerId = customerId;
+        this.conversionAction = ResourceNames.conversionAction(customerId, conversionActionId);
+        this.batchSize = batchSize;
+        this.columns = new ConversionColumns(batchSize);
+    }
+
+    // Returns the request of the batch this row completes, or null while the batch is not full.
+    UploadClickConversionsRequest add(ConversionRecord record) {
+        columns.add(conversionAction, record, assembler.serializedSize(conversionAction, record));
+        return columns.size() == batchSize ? finish() : null;
+    }
+
+    // Returns the request of the rows added since the last one, or null when there are none.
+    UploadClickConversionsRequest finish() {
+        if (columns.size() == 0) {
+            return null;
+        }
+        UploadClickConversionsRequest request = assembler.assemble(new UploadBatch(sequence++, customerId, columns,
+                null));
+        columns = new ConversionColumns(batchSize);
+        return request;
+    }
+}
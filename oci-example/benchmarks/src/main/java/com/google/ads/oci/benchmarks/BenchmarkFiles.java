@@ -0,0 +1,52 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+final class BenchmarkFiles {
+    private BenchmarkFiles() {
+    }
+
+    // Generated files are kept in the temp directory and reused across forks and runs; the 10M row file is several GB.
+    static Path appsFlyerCsv(long rows) throws IOException {
+        Path file = Paths.get(System.getProperty("java.io.tmpdir"), "oci-benchmark-appsflyer-" + rows + ".csv");
+        if (!Files.exists(file)) {
+            Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            AppsFlyerCsvGenerator.write(tmp, rows, 42);
+            Files.move(tmp, file);
+        }
+        return file;
+    }
+
+    // Mapping logs every record without click IDs; the formatting cost is measured, but the output is discarded.
+    static void discardStdout() {
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+}
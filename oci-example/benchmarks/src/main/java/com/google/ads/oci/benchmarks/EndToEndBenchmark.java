@@ -0,0 +1,92 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.benchmarks;
+
+import com.google.ads.oci.fake.FakeConversionUploadServer;
+import com.google.ads.oci.fake.FakeServerOptions;
+import com.google.ads.oci.models.AFConversionRecord;
+import com.google.ads.oci.service.OCIUploadService;
+import com.google.ads.oci.service.UploadOptions;
+import com.google.ads.oci.service.UploadSummary;
+import com.google.ads.oci.utils.CSVUtil;
+import org.apache.commons.csv.CSVRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Wall time to upload a whole export through OCIUploadService against a local fake server with realistic latency.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class EndToEndBenchmark {
+    private static final long CONVERSION_ACTION_ID = 987654321L;
+
+    @Param({"100000"})
+    public long rows;
+
+    @Param({"1", "4", "16"})
+    public int workers;
+
+    @Param({"50"})
+    public long medianLatencyMillis;
+
+    private String csvFile;
+    private FakeConversionUploadServer server;
+    private OCIUploadService service;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        csvFile = BenchmarkFiles.appsFlyerCsv(rows).toString();
+        server = new FakeConversionUploadServer(new FakeServerOptions()
+                .setMedianLatencyMillis(medianLatencyMillis)
+                .setP99LatencyMillis(medianLatencyMillis * 4));
+        service = new OCIUploadService("1234567890", "", "", "", "fake-developer-token", new UploadOptions()
+                .setEndpoint(server.getEndpoint())
+                .setPlaintext(true)
+                .setWorkers(workers)
+                .setQueueCapacity(workers * 2));
+        BenchmarkFiles.discardStdout();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        service.close();
+        server.close();
+    }
+
+    @Benchmark
+    public UploadSummary upload() {
+        try (Stream<CSVRecord> records = CSVUtil.streamAppsFlyerCSV(csvFile)) {
+            return service.uploadAFConversionStream(AFConversionRecord.ofStream(records), CONVERSION_ACTION_ID);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.benchmarks;
+
+import com.google.ads.oci.models.AFConversionRecord;
+import com.google.ads.oci.service.AdaptiveBatchSizer;
+import com.google.ads.oci.utils.CSVUtil;
+import org.apache.commons.csv.CSVRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Streams whole generated exports through the pipeline, one cumulative stage per benchmark: the cost of a stage is the
+// difference to the previous one. Run with -prof gc to get the allocation rate and bytes per file.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class PipelineBenchmark {
+    private static final long CUSTOMER_ID = 1234567890L;
+    private static final long CONVERSION_ACTION_ID = 987654321L;
+
+    @Param({"10000", "1000000", "10000000"})
+    public long rows;
+
+    private String csvFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        csvFile = BenchmarkFiles.appsFlyerCsv(rows).toString();
+        BenchmarkFiles.discardStdout();
+    }
+
+    @Benchmark
+    public long read() {
+        try (Stream<CSVRecord> records = CSVUtil.streamAppsFlyerCSV(csvFile)) {
+            return records.count();
+        }
+    }
+
+    @Benchmark
+    public long readAndMap() {
+        try (Stream<CSVRecord> records = CSVUtil.streamAppsFlyerCSV(csvFile)) {
+            return AFConversionRecord.ofStream(records).count();
+        }
+    }
+
+    @Benchmark
+    public void readMapAndBuild(Blackhole blackhole) {
+        try (Stream<CSVRecord> records = CSVUtil.streamAppsFlyerCSV(csvFile)) {
+            BatchRequests requests = new BatchRequests(CUSTOMER_ID, CONVERSION_ACTION_ID,
+                    AdaptiveBatchSizer.API_MAX_BATCH_SIZE);
+            AFConversionRecord.ofStream(records).forEach(record -> blackhole.consume(requests.add(record)));
+            blackhole.consume(requests.finish());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.benchmarks;
+
+import com.google.ads.googleads.v13.services.ClickConversion;
+import com.google.ads.googleads.v13.services.UploadClickConversionsRequest;
+import com.google.ads.googleads.v13.utils.ResourceNames;
+import com.google.ads.oci.models.AFConversionRecord;
+import com.google.ads.oci.service.ConversionColumns;
+import com.google.ads.oci.service.RequestAssembler;
+import com.google.ads.oci.service.UploadBatch;
+import com.google.ads.oci.utils.CSVUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Per-row throughput of turning mapped rows into UploadClickConversionsRequests of the API's maximum batch size,
+// building a ClickConversion per row as before against the RequestAssembler over batch columns. Scores are rows per
+// second, with and without serializing the requests; with -prof gc, gc.alloc.rate.norm is the number of bytes
+// allocated per row.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestAssemblyBenchmark {
+    private static final int BATCH_SIZE = 2_000;
+    private static final int BATCHES = StageBenchmark.SAMPLE_ROWS / BATCH_SIZE;
+    private static final long CUSTOMER_ID = 1234567890L;
+    private static final long CONVERSION_ACTION_ID = 987654321L;
+
+    // With serialize, each request is also written to bytes as it would be for the channel; string fields set from
+    // ByteStrings are copied there instead of being encoded again.
+    @Param({"false", "true"})
+    private boolean serialize;
+
+    private final RequestAssembler assembler = new RequestAssembler();
+    private List<List<AFConversionRecord>> recordBatches;
+    private List<UploadBatch> columnBatches;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String csvFile = BenchmarkFiles.appsFlyerCsv(StageBenchmark.SAMPLE_ROWS).toString();
+        BenchmarkFiles.discardStdout();
+        List<AFConversionRecord> mapped = AFConversionRecord.ofList(CSVUtil.readAppsFlyerCSV(csvFile));
+        String conversionAction = ResourceNames.conversionAction(CUSTOMER_ID, CONVERSION_ACTION_ID);
+        recordBatches = new ArrayList<>(BATCHES);
+        columnBatches = new ArrayList<>(BATCHES);
+        for (int i = 0; i < BATCHES; i++) {
+            List<AFConversionRecord> records = new ArrayList<>(BATCH_SIZE);
+            ConversionColumns columns = new ConversionColumns(BATCH_SIZE);
+            for (int j = 0; j < BATCH_SIZE; j++) {
+                AFConversionRecord record = mapped.get((i * BATCH_SIZE + j) % mapped.size());
+                records.add(record);
+                columns.add(conversionAction, record, assembler.serializedSize(conversionAction, record));
+            }
+            recordBatches.add(records);
+            columnBatches.add(new UploadBatch(i, CUSTOMER_ID, columns, null));
+        }
+    }
+
+    // A ResourceNames.conversionAction call, a ClickConversion.Builder and a built ClickConversion per row.
+    @Benchmark
+    @OperationsPerInvocation(StageBenchmark.SAMPLE_ROWS)
+    public long perRowBuilders(Blackhole blackhole) {
+        long bytes = 0;
+        for (List<AFConversionRecord> records : recordBatches) {
+            UploadClickConversionsRequest.Builder request = UploadClickConversionsRequest.newBuilder()
+                    .setCustomerId(Long.toString(CUSTOMER_ID));
+            for (AFConversionRecord record : records) {
+                request.addConversions(buildConversion(record));
+            }
+            bytes += consume(request.setPartialFailure(true).build(), blackhole);
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(StageBenchmark.SAMPLE_ROWS)
+    public long assembler(Blackhole blackhole) {
+        long bytes = 0;
+        for (UploadBatch batch : columnBatches) {
+            bytes += consume(assembler.assemble(batch), blackhole);
+        }
+        return bytes;
+    }
+
+    // The per-row builder the uploader used before requests were assembled from batch columns, kept as the baseline.
+    private static ClickConversion buildConversion(AFConversionRecord record) {
+        ClickConversion.Builder builder = ClickConversion.newBuilder()
+                .setConversionAction(ResourceNames.conversionAction(CUSTOMER_ID, CONVERSION_ACTION_ID))
+                .setConversionDateTime(record.getConversionDateTime());
+        if (record.getValue() != null) {
+            builder.setConversionValue(record.getValue());
+            if (record.getCurrencyCode() != null) {
+                builder.setCurrencyCode(record.getCurrencyCode());
+            }
+        }
+        String gclid = record.getGCLID();
+        if (gclid != null && !gclid.isEmpty()) {
+            builder.setGclid(gclid);
+        } else {
+            builder.setWbraid(record.getWBRAID());
+        }
+        return builder.build();
+    }
+
+    private long consume(UploadClickConversionsRequest request, Blackhole blackhole) {
+        if (serialize) {
+            return request.toByteArray().length;
+        }
+        blackhole.consume(request);
+        return 0;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.benchmarks;
+
+import com.google.ads.oci.models.AFConversionRecord;
+import com.google.ads.oci.service.AdaptiveBatchSizer;
+import com.google.ads.oci.utils.CSVUtil;
+import org.apache.commons.csv.CSVRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Per-row throughput of the mapping and build stages in isolation, over an in-memory sample of parsed rows. Scores
+// are rows per second; with -prof gc, gc.alloc.rate.norm is the number of bytes allocated per row.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StageBenchmark {
+    static final int SAMPLE_ROWS = 10_000;
+    private static final long CUSTOMER_ID = 1234567890L;
+    private static final long CONVERSION_ACTION_ID = 987654321L;
+
+    private List<CSVRecord> csvRecords;
+    private List<AFConversionRecord> conversionRecords;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String csvFile = BenchmarkFiles.appsFlyerCsv(SAMPLE_ROWS).toString();
+        csvRecords = CSVUtil.readAppsFlyerCSV(csvFile);
+        // Only installs with click IDs survive mapping; they are repeated to the sample size so both stages report
+        // the same unit.
+        List<AFConversionRecord> mapped = AFConversionRecord.ofList(csvRecords);
+        conversionRecords = new ArrayList<>(SAMPLE_ROWS);
+        for (int i = 0; i < SAMPLE_ROWS; i++) {
+            conversionRecords.add(mapped.get(i % mapped.size()));
+        }
+        BenchmarkFiles.discardStdout();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLE_ROWS)
+    public void map(Blackhole blackhole) {
+        for (CSVRecord csvRecord : csvRecords) {
+            blackhole.consume(AFConversionRecord.of(csvRecord));
+        }
+    }
+
+    // Covers adding each row to the batch columns and assembling a request from every full batch.
+    @Benchmark
+    @OperationsPerInvocation(SAMPLE_ROWS)
+    public void build(Blackhole blackhole) {
+        BatchRequests requests = new BatchRequests(CUSTOMER_ID, CONVERSION_ACTION_ID,
+                AdaptiveBatchSizer.API_MAX_BATCH_SIZE);
+        for (AFConversionRecord record : conversionRecords) {
+            blackhole.consume(requests.add(record));
+        }
+        blackhole.consume(requests.finish());
+    }
+}
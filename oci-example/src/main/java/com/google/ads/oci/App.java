@@ -16,17 +16,50 @@
 package com.google.ads.oci;
 
 import com.google.ads.oci.models.AFConversionRecord;
+import com.google.ads.oci.service.ConversionDeduplicator;
+import com.google.ads.oci.service.ConversionRouting;
+import com.google.ads.oci.service.DeadLetterFile;
+import com.google.ads.oci.service.DirectoryWatcher;
+import com.google.ads.oci.service.IngestServer;
+import com.google.ads.oci.service.MetricsServer;
 import com.google.ads.oci.service.OCIUploadService;
+import com.google.ads.oci.service.ResultReporter;
+import com.google.ads.oci.service.SpillQueue;
+import com.google.ads.oci.service.UploadJournal;
+import com.google.ads.oci.service.UploadMetrics;
+import com.google.ads.oci.service.UploadOptions;
+import com.google.ads.oci.service.UploadSummary;
+import com.google.ads.oci.utils.AFDateTimeConverter;
+import com.google.ads.oci.utils.AFRowFilter;
 import com.google.ads.oci.utils.CSVUtil;
+import com.google.ads.oci.utils.MappedAppsFlyerReader;
+import com.google.ads.oci.utils.ParallelCSVReader;
 import com.google.common.base.Preconditions;
-import org.apache.commons.csv.CSVRecord;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Streams;
 
-import java.util.List;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.LongPredicate;
+import java.util.stream.Stream;
 
 public class App {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         Preconditions.checkArgument(args != null);
-        Preconditions.checkArgument(args.length == 7);
+        Preconditions.checkArgument(args.length >= 6);
 
         String mccId = args[0];
         String devToken = args[1];
@@ -34,10 +67,293 @@ public class App {
         String clientSecret = args[3];
         String refreshToken = args[4];
         String conversionId = args[5];
-        String csvFilePath = args[6];
+        // The input file is left out in server and watch mode.
+        String csvFilePath = args.length > 6 && !args[6].startsWith("--") ? args[6] : null;
+        Map<String, String> flags = parseFlags(args, csvFilePath == null ? 6 : 7);
+        Preconditions.checkArgument(csvFilePath != null || flags.containsKey("serve") || flags.containsKey("watch"),
+                "No input file given");
+        Preconditions.checkArgument(!flags.containsKey("serve") && !flags.containsKey("watch")
+                || !flags.containsKey("journal"), "--journal only applies to a single input file");
 
-        List<CSVRecord> records =  CSVUtil.readAppsFlyerCSV(csvFilePath);
-        OCIUploadService ociUploadService = new OCIUploadService(mccId, clientId, clientSecret, refreshToken, devToken);
-        ociUploadService.uploadAFConversionList(AFConversionRecord.ofList(records), Long.parseLong(conversionId));
+        UploadOptions options = new UploadOptions();
+        if (flags.containsKey("workers")) {
+            options.setWorkers(Integer.parseInt(flags.get("workers")));
+        }
+        if (flags.containsKey("queue-capacity")) {
+            options.setQueueCapacity(Integer.parseInt(flags.get("queue-capacity")));
+        }
+        if (flags.containsKey("channels")) {
+            options.setChannels(Integer.parseInt(flags.get("channels")));
+        }
+        if (flags.containsKey("batch-size")) {
+            options.setBatchSize(Integer.parseInt(flags.get("batch-size")));
+        }
+        if (flags.containsKey("max-batch-size")) {
+            options.setMaxBatchSize(Integer.parseInt(flags.get("max-batch-size")));
+        }
+        if (flags.containsKey("target-latency-ms")) {
+            options.setTargetLatencyMillis(Long.parseLong(flags.get("target-latency-ms")));
+        }
+        if (flags.containsKey("max-request-bytes")) {
+            options.setMaxRequestBytes(Long.parseLong(flags.get("max-request-bytes")));
+        }
+        if (flags.containsKey("endpoint")) {
+            options.setEndpoint(flags.get("endpoint"));
+        }
+        if (flags.containsKey("requests-per-second")) {
+            options.setRequestsPerSecond(Double.parseDouble(flags.get("requests-per-second")));
+        }
+        if (flags.containsKey("conversions-per-second")) {
+            options.setConversionsPerSecond(Double.parseDouble(flags.get("conversions-per-second")));
+        }
+        if (flags.containsKey("report")) {
+            options.setReportLevel(ResultReporter.Level.valueOf(flags.get("report").toUpperCase()));
+        }
+        if (flags.containsKey("max-attempts")) {
+            options.setMaxAttempts(Integer.parseInt(flags.get("max-attempts")));
+        }
+        options.setPlaintext(Boolean.parseBoolean(flags.get("plaintext")));
+
+        // Signalled once everything is uploaded and closed, for the shutdown hook of server and watch mode.
+        CountDownLatch finished = new CountDownLatch(1);
+        ConversionDeduplicator deduplicator = null;
+        try (OCIUploadService ociUploadService = new OCIUploadService(mccId, clientId, clientSecret, refreshToken, devToken, options);
+             UploadJournal journal = flags.containsKey("journal")
+                     ? UploadJournal.open(Paths.get(flags.get("journal")), Paths.get(csvFilePath)) : null;
+             DeadLetterFile deadLetters = flags.containsKey("dead-letter")
+                     ? DeadLetterFile.open(Paths.get(flags.get("dead-letter"))) : null;
+             MetricsServer metricsServer = flags.containsKey("metrics-port")
+                     ? MetricsServer.start(bindAddress(flags), Integer.parseInt(flags.get("metrics-port")),
+                             ociUploadService.getMetrics()) : null) {
+            UploadMetrics metrics = ociUploadService.getMetrics();
+            if (deadLetters != null) {
+                ociUploadService.setDeadLetterSink(deadLetters);
+            }
+            if (flags.containsKey("dedup-index")) {
+                deduplicator = ConversionDeduplicator.persistent(Paths.get(flags.get("dedup-index")));
+            } else if (Boolean.parseBoolean(flags.get("dedup"))) {
+                deduplicator = ConversionDeduplicator.inMemory();
+            }
+
+            ZoneId sourceZone = flags.containsKey("time-zone") ? ZoneId.of(flags.get("time-zone")) : ZoneOffset.UTC;
+            AFDateTimeConverter dateTimeConverter = new AFDateTimeConverter(sourceZone);
+
+            // Rows are filtered before they are mapped, so rejected rows never have their dates converted.
+            // Installs go to the conversion action given on the command line unless --routes sends them elsewhere.
+            ConversionRouting routing = new ConversionRouting().route("install", Long.parseLong(conversionId));
+            if (flags.containsKey("routes")) {
+                routing.routes(flags.get("routes"));
+            }
+            AFRowFilter eventFilter = new AFRowFilter().setEventNames(routing.getEventNames());
+            if (flags.containsKey("events")) {
+                eventFilter.setEventNames(Arrays.asList(flags.get("events").split(",")));
+            }
+            if (flags.containsKey("max-click-age-days")) {
+                eventFilter.setMaxClickAge(Duration.ofDays(Long.parseLong(flags.get("max-click-age-days"))),
+                        sourceZone);
+            }
+            if (deduplicator != null) {
+                ociUploadService.addBatchListener(deduplicator);
+            }
+
+            if (flags.containsKey("serve")) {
+                UploadSummary summary = serve(ociUploadService, flags, routing, eventFilter, dateTimeConverter,
+                        deduplicator, finished);
+                System.out.println(summary);
+                summary.getRateLimiters().forEach(System.out::println);
+            } else if (flags.containsKey("watch")) {
+                watch(ociUploadService, flags, routing, eventFilter, dateTimeConverter, deduplicator, finished);
+            } else {
+                UploadSummary summary = uploadFile(ociUploadService, csvFilePath, journal, flags, routing, eventFilter,
+                        dateTimeConverter, deduplicator);
+                System.out.println(summary);
+                summary.getRateLimiters().forEach(System.out::println);
+            }
+            System.out.println(eventFilter);
+            System.out.println(metrics);
+            if (deduplicator != null) {
+                System.out.println("Skipped " + deduplicator.getDuplicates() + " duplicate conversions.");
+            }
+        } finally {
+            // Also saved when the upload or closing its files failed, so the rows already uploaded are not sent again.
+            try {
+                if (deduplicator != null) {
+                    deduplicator.save();
+                }
+            } finally {
+                finished.countDown();
+            }
+        }
+    }
+
+    // Parses, maps and uploads one input file. With a journal, reading skips straight to the first row that a
+    // previous run did not upload, and rows of batches acknowledged past that point are dropped; without one the whole
+    // file is read.
+    private static UploadSummary uploadFile(OCIUploadService ociUploadService, String csvFilePath, UploadJournal journal,
+                                            Map<String, String> flags, ConversionRouting routing,
+                                            AFRowFilter eventFilter, AFDateTimeConverter dateTimeConverter,
+                                            ConversionDeduplicator deduplicator) throws IOException {
+        UploadMetrics metrics = ociUploadService.getMetrics();
+        // Watch mode reads files days apart, so the click age is measured from the start of each file.
+        eventFilter.refreshClickCutoff();
+        long firstRow = 1;
+        long resumeOffset = 0;
+        LongPredicate notAcknowledged = row -> true;
+        if (journal != null) {
+            UploadJournal.ResumePoint resumePoint = journal.getResumePoint();
+            if (resumePoint.getRow() > 0) {
+                System.out.println("Resuming " + csvFilePath + " after row " + resumePoint.getRow());
+            }
+            firstRow = resumePoint.getRow() + 1;
+            resumeOffset = resumePoint.getOffset();
+            notAcknowledged = row -> !journal.isAcknowledged(row);
+        }
+
+        int parseThreads = flags.containsKey("parse-threads") ? Integer.parseInt(flags.get("parse-threads")) : 1;
+        // Compressed files are decompressed while they are parsed, so they can be neither mapped nor chunked.
+        boolean compressed = CSVUtil.isCompressed(csvFilePath);
+        if (compressed && ("mapped".equals(flags.get("reader")) || parseThreads > 1)) {
+            System.out.println("Reading compressed input " + csvFilePath + " sequentially");
+        }
+        LongPredicate rowFilter = notAcknowledged;
+        Stream<AFConversionRecord> conversions;
+        if (!compressed && "mapped".equals(flags.get("reader"))) {
+            conversions = MappedAppsFlyerReader.streamAppsFlyerCSV(csvFilePath, parseThreads, firstRow,
+                    rowFilter, eventFilter, dateTimeConverter,
+                    (nanos, records) -> metrics.record(UploadMetrics.Stage.MAP, nanos, records));
+        } else if (!compressed && parseThreads > 1) {
+            conversions = ParallelCSVReader.streamAppsFlyerCSV(csvFilePath, parseThreads, firstRow,
+                    record -> rowFilter.test(record.getRecordNumber()) && eventFilter.test(record),
+                    (record, sourceLine) -> Optional.of(AFConversionRecord.map(record, dateTimeConverter, sourceLine)),
+                    (nanos, records) -> metrics.record(UploadMetrics.Stage.MAP, nanos, records));
+        } else {
+            conversions = CSVUtil.streamAppsFlyerCSV(csvFilePath, resumeOffset, firstRow - 1,
+                    record -> rowFilter.test(record.getRecordNumber()) && eventFilter.test(record),
+                    (record, sourceLine) -> {
+                        long start = System.nanoTime();
+                        AFConversionRecord conversion = AFConversionRecord.map(record, dateTimeConverter, sourceLine);
+                        metrics.record(UploadMetrics.Stage.MAP, System.nanoTime() - start, 1);
+                        return conversion;
+                    });
+        }
+        if (deduplicator != null) {
+            conversions = conversions.filter(deduplicator::firstSeen);
+        }
+        // With a spill directory the input is parsed ahead of the uploads, and what does not fit into memory
+        // waits on disk.
+        SpillQueue spillQueue = null;
+        if (flags.containsKey("spill-dir")) {
+            int memoryRecords = flags.containsKey("spill-memory-records")
+                    ? Integer.parseInt(flags.get("spill-memory-records")) : SpillQueue.DEFAULT_MEMORY_CAPACITY;
+            spillQueue = SpillQueue.start(conversions, Paths.get(flags.get("spill-dir")), memoryRecords,
+                    SpillQueue.DEFAULT_SEGMENT_BYTES);
+            conversions = Streams.stream(spillQueue).onClose(spillQueue::close);
+        }
+
+        // Closing the mapped stream closes the parser it was derived from.
+        try (Stream<AFConversionRecord> upload = conversions) {
+            return ociUploadService.uploadAFConversionStream(upload, routing, firstRow,
+                    journal == null ? Collections.emptyList() : Collections.singletonList(journal));
+        } finally {
+            if (spillQueue != null) {
+                System.out.println(spillQueue);
+            }
+        }
+    }
+
+    // Uploads the files dropped into the watched directory until the JVM is asked to shut down, then finishes the
+    // files already being uploaded before returning.
+    private static void watch(OCIUploadService ociUploadService, Map<String, String> flags, ConversionRouting routing,
+                              AFRowFilter eventFilter, AFDateTimeConverter dateTimeConverter,
+                              ConversionDeduplicator deduplicator, CountDownLatch finished) throws IOException {
+        Path directory = Paths.get(flags.get("watch"));
+        Path stateDirectory = flags.containsKey("state-dir")
+                ? Paths.get(flags.get("state-dir")) : directory.resolve(".oci-state");
+        DirectoryWatcher watcher = new DirectoryWatcher(directory, stateDirectory, (file, journal) -> {
+            UploadSummary summary = uploadFile(ociUploadService, file.toString(), journal, flags, routing,
+                    eventFilter, dateTimeConverter, deduplicator);
+            // The watcher deletes the journal of a completed file, so the keys of its rows are saved first; a crash
+            // later in the run would otherwise let the next run send them again.
+            if (deduplicator != null) {
+                deduplicator.save();
+            }
+            return summary;
+        });
+        if (flags.containsKey("watch-threads")) {
+            watcher.setThreads(Integer.parseInt(flags.get("watch-threads")));
+        }
+        if (flags.containsKey("settle-ms")) {
+            watcher.setSettleMillis(Long.parseLong(flags.get("settle-ms")));
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            watcher.close();
+            try {
+                finished.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "oci-shutdown"));
+        System.out.println("Watching " + directory + " for input files");
+        watcher.run();
+        System.out.println(watcher);
+    }
+
+    // Accepts conversions over HTTP and uploads them in micro-batches until the JVM is asked to shut down, then uploads
+    // what was already accepted before returning.
+    private static UploadSummary serve(OCIUploadService ociUploadService, Map<String, String> flags,
+                                       ConversionRouting routing, AFRowFilter eventFilter,
+                                       AFDateTimeConverter dateTimeConverter, ConversionDeduplicator deduplicator,
+                                       CountDownLatch finished) throws IOException {
+        IngestServer ingestServer = new IngestServer(eventFilter, dateTimeConverter).setBindAddress(bindAddress(flags));
+        if (flags.containsKey("ingest-threads")) {
+            ingestServer.setThreads(Integer.parseInt(flags.get("ingest-threads")));
+        }
+        if (flags.containsKey("micro-batch-size")) {
+            ingestServer.setMaxBatchSize(Integer.parseInt(flags.get("micro-batch-size")));
+        }
+        if (flags.containsKey("linger-ms")) {
+            ingestServer.setLingerMillis(Long.parseLong(flags.get("linger-ms")));
+        }
+        if (flags.containsKey("max-pending")) {
+            ingestServer.setMaxPending(Integer.parseInt(flags.get("max-pending")));
+        }
+        Iterator<Iterator<AFConversionRecord>> microBatches = ingestServer.start(Integer.parseInt(flags.get("serve")));
+        if (deduplicator != null) {
+            microBatches = Iterators.transform(microBatches,
+                    microBatch -> Iterators.filter(microBatch, deduplicator::firstSeen));
+        }
+
+        // The JVM exits once its shutdown hooks return, so the hook waits until the accepted conversions are uploaded
+        // and the main thread has closed its files.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            ingestServer.close();
+            try {
+                finished.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "oci-shutdown"));
+        System.out.println("Accepting conversions on " + bindAddress(flags).getHostAddress() + ":"
+                + flags.get("serve"));
+        UploadSummary summary = ociUploadService.uploadAFConversionBatches(microBatches, routing, 1);
+        System.out.println(ingestServer);
+        return summary;
+    }
+
+    // The address the ingest and metrics servers listen on, the loopback interface unless --bind names another.
+    private static InetAddress bindAddress(Map<String, String> flags) throws UnknownHostException {
+        return flags.containsKey("bind") ? InetAddress.getByName(flags.get("bind")) : InetAddress.getLoopbackAddress();
+    }
+
+    // Optional arguments after the positional ones, in the form --name=value.
+    private static Map<String, String> parseFlags(String[] args, int from) {
+        Map<String, String> flags = new HashMap<>();
+        for (int i = from; i < args.length; i++) {
+            Preconditions.checkArgument(args[i].startsWith("--") && args[i].contains("="), "Unrecognized argument: %s", args[i]);
+            int separator = args[i].indexOf('=');
+            flags.put(args[i].substring(2, separator), args[i].substring(separator + 1));
+        }
+        return flags;
     }
 }
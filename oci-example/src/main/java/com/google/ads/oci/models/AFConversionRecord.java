@@ -15,21 +15,30 @@
  */
 package com.google.ads.oci.models;
 
+import com.google.ads.oci.utils.AFDateTimeConverter;
 import io.grpc.netty.shaded.io.netty.util.internal.StringUtil;
 import org.apache.commons.csv.CSVRecord;
 
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class AFConversionRecord extends ConversionRecord{
-    private static final DateTimeFormatter AF_DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy/M/d H:m");
-    private static final DateTimeFormatter OCI_DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss+00:00");
-    private AFConversionRecord(String gclid, String gbraid, String wbraid, Double value, String currencyCode, String conversionDateTime) {
-        super(gclid, gbraid, wbraid, value, currencyCode, conversionDateTime);
+    private static final AFDateTimeConverter UTC_DATE_TIME_CONVERTER = AFDateTimeConverter.utc();
+
+    private final String eventName;
+
+    private AFConversionRecord(String eventName, String gclid, String gbraid, String wbraid, Double value, String currencyCode,
+                               String conversionDateTime, long sourceRow, long sourceOffset, long sourceLine) {
+        super(gclid, gbraid, wbraid, value, currencyCode, conversionDateTime, sourceRow, sourceOffset, sourceLine);
+        this.eventName = eventName;
+    }
+
+    // AppsFlyer event name, which selects the conversion action the record is uploaded to.
+    public String getEventName() {
+        return eventName;
     }
 
     public static List<AFConversionRecord> ofList(List<CSVRecord> csvRecords) {
@@ -37,26 +46,73 @@ public class AFConversionRecord extends ConversionRecord{
                 .filter(Objects::nonNull).collect(Collectors.toList());
     }
 
+    public static Stream<AFConversionRecord> ofStream(Stream<CSVRecord> csvRecords) {
+        return ofStream(csvRecords, UTC_DATE_TIME_CONVERTER);
+    }
+
+    // Event times are interpreted in the time zone of the given converter.
+    public static Stream<AFConversionRecord> ofStream(Stream<CSVRecord> csvRecords, AFDateTimeConverter dateTimeConverter) {
+        return csvRecords.map(csvRecord -> of(csvRecord, dateTimeConverter)).filter(Optional::isPresent).map(Optional::get);
+    }
+
     public static Optional<AFConversionRecord> of(CSVRecord csvRecord) {
-        String convertedDateTime = LocalDateTime.parse(csvRecord.get("Event Time"), AF_DATE_TIME_FORMATTER).format(OCI_DATE_TIME_FORMATTER);
-        String gclid = csvRecord.get("Sub Param 1");
-        String wbraid = csvRecord.get("Sub Param 3");
-        String valueStr = csvRecord.get("Event Value");
-        String currencyCode = csvRecord.get("Event Revenue Currency");
+        return of(csvRecord, UTC_DATE_TIME_CONVERTER);
+    }
 
-        if (StringUtil.isNullOrEmpty(gclid) && StringUtil.isNullOrEmpty(wbraid)) {
+    // Only installs with a click ID are conversions. Those checks come first, so other rows are dropped without
+    // converting their event time.
+    public static Optional<AFConversionRecord> of(CSVRecord csvRecord, AFDateTimeConverter dateTimeConverter) {
+        if (!Objects.equals(csvRecord.get("Event Name"), "install")) {
+            return Optional.empty();
+        }
+        if (StringUtil.isNullOrEmpty(csvRecord.get("Sub Param 1")) && StringUtil.isNullOrEmpty(csvRecord.get("Sub Param 3"))) {
             System.out.println("Both gclid and wbraid are empty, csv record: " + csvRecord);
             return Optional.empty();
         }
+        return Optional.of(map(csvRecord, dateTimeConverter));
+    }
+
+    // Maps a record that an AFRowFilter already accepted, without checking it again. Its source line is not known.
+    public static AFConversionRecord map(CSVRecord csvRecord, AFDateTimeConverter dateTimeConverter) {
+        return map(csvRecord, dateTimeConverter, 0);
+    }
+
+    public static AFConversionRecord map(CSVRecord csvRecord, AFDateTimeConverter dateTimeConverter,
+                                         long sourceLine) {
+        return fromColumns(
+                csvRecord.get("Event Name"),
+                csvRecord.get("Sub Param 1"),
+                csvRecord.get("Sub Param 3"),
+                csvRecord.get("Event Value"),
+                csvRecord.get("Event Revenue Currency"),
+                dateTimeConverter.convert(csvRecord.get("Event Time")),
+                csvRecord.getRecordNumber(),
+                csvRecord.getCharacterPosition(),
+                sourceLine);
+    }
+
+    // Builds a conversion from raw column values, for readers that do not go through CSVRecord. The date time must
+    // already be converted; empty value and currency columns are treated as absent.
+    public static AFConversionRecord fromColumns(String eventName, String gclid, String wbraid, String valueStr,
+                                                 String currencyCode, String convertedDateTime, long sourceRow,
+                                                 long sourceOffset, long sourceLine) {
+        return fromValues(
+                eventName,
+                gclid,
+                wbraid,
+                StringUtil.isNullOrEmpty(valueStr) ? null : Double.parseDouble(valueStr),
+                StringUtil.isNullOrEmpty(currencyCode) ? null : currencyCode,
+                convertedDateTime,
+                sourceRow,
+                sourceOffset,
+                sourceLine);
+    }
 
-        return Objects.equals(csvRecord.get("Event Name"), "install")? Optional.of(
-                new AFConversionRecord(
-                        gclid,
-                        null,
-                        wbraid,
-                        StringUtil.isNullOrEmpty(valueStr) ? null : Double.parseDouble(valueStr),
-                        StringUtil.isNullOrEmpty(currencyCode) ? null : currencyCode,
-                        convertedDateTime))
-                : Optional.empty();
+    // Builds a conversion from values that are already parsed, e.g. when it is taken back out of a columnar batch.
+    public static AFConversionRecord fromValues(String eventName, String gclid, String wbraid, Double value,
+                                                String currencyCode, String convertedDateTime, long sourceRow,
+                                                long sourceOffset, long sourceLine) {
+        return new AFConversionRecord(eventName, gclid, null, wbraid, value, currencyCode, convertedDateTime,
+                sourceRow, sourceOffset, sourceLine);
     }
 }
\ No newline at end of file
@@ -22,14 +22,21 @@ public abstract class ConversionRecord {
     private final Double value;
     private final String currencyCode;
     private final String conversionDateTime;
+    private final long sourceRow;
+    private final long sourceOffset;
+    private final long sourceLine;
 
-    protected ConversionRecord(String gclid, String gbraid, String wbraid, Double value, String currencyCode, String conversionDateTime) {
+    protected ConversionRecord(String gclid, String gbraid, String wbraid, Double value, String currencyCode, String conversionDateTime,
+                               long sourceRow, long sourceOffset, long sourceLine) {
         this.gclid = gclid;
         this.gbraid = gbraid;
         this.wbraid = wbraid;
         this.value = value;
         this.currencyCode = currencyCode;
         this.conversionDateTime = conversionDateTime;
+        this.sourceRow = sourceRow;
+        this.sourceOffset = sourceOffset;
+        this.sourceLine = sourceLine;
     }
 
     public String getGCLID() {
@@ -44,7 +51,8 @@ public abstract class ConversionRecord {
         return wbraid;
     }
 
-    public double getValue() {
+    // Null when the row has no value.
+    public Double getValue() {
         return value;
     }
 
@@ -55,4 +63,20 @@ public abstract class ConversionRecord {
     public String getConversionDateTime() {
         return conversionDateTime;
     }
+
+    // 1-based number of the data row in the source file.
+    public long getSourceRow() {
+        return sourceRow;
+    }
+
+    // Character position of the row in the source file, used to resume reading without re-parsing earlier rows.
+    public long getSourceOffset() {
+        return sourceOffset;
+    }
+
+    // 1-based line of the source file the row starts on, counting the header and any line breaks in quoted fields
+    // before it, or 0 when it is not known.
+    public long getSourceLine() {
+        return sourceLine;
+    }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+// Chooses the number of conversions for the next UploadClickConversionsRequest from the outcome of completed ones.
+// The size grows multiplicatively while requests are fast and clean, and backs off when the API pushes back, so a
+// run converges on the fewest round-trips that stay within latency, payload and quota limits.
+public class AdaptiveBatchSizer implements BatchListener {
+    // Maximum number of conversions accepted in a single UploadClickConversionsRequest.
+    public static final int API_MAX_BATCH_SIZE = 2000;
+
+    private static final double FAILURE_RATIO_THRESHOLD = 0.1;
+
+    private final int maxBatchSize;
+    private final long targetLatencyNanos;
+    private final long maxRequestBytes;
+    private int batchSize;
+
+    public AdaptiveBatchSizer(UploadOptions options) {
+        this.maxBatchSize = options.getMaxBatchSize();
+        this.targetLatencyNanos = options.getTargetLatencyMillis() * 1_000_000L;
+        this.maxRequestBytes = options.getMaxRequestBytes();
+        this.batchSize = Math.min(options.getBatchSize(), maxBatchSize);
+    }
+
+    public synchronized int nextBatchSize() {
+        return batchSize;
+    }
+
+    public long getMaxRequestBytes() {
+        return maxRequestBytes;
+    }
+
+    @Override
+    public synchronized void onBatchComplete(UploadBatch batch, BatchResult result) {
+        if (result.isResourceExhausted()) {
+            // Quota pushback: halve, the same way TCP reacts to loss.
+            batchSize = Math.max(1, batchSize / 2);
+        } else if (result.isFailed()
+                || result.getLatencyNanos() > targetLatencyNanos
+                || transientRowErrors(result) > result.getSize() * FAILURE_RATIO_THRESHOLD) {
+            // Slow requests, and requests with many rows to retry, are shrunk so a single bad request costs less to
+            // retry. Rows the API rejected for good, e.g. expired click IDs, fail the same at any batch size.
+            batchSize = Math.max(1, batchSize * 3 / 4);
+        } else if (result.getLatencyNanos() < targetLatencyNanos / 2 && batch.size() >= batchSize) {
+            // Only batches that were actually full say anything about whether a larger size would still be fast.
+            int grown = Math.max(batchSize + 1, batchSize * 3 / 2);
+            if (batch.getRequestBytes() > 0) {
+                long bytesPerRow = Math.max(1, batch.getRequestBytes() / batch.size());
+                grown = (int) Math.min(grown, maxRequestBytes / bytesPerRow);
+            }
+            batchSize = Math.max(1, Math.min(maxBatchSize, grown));
+        }
+    }
+
+    private static long transientRowErrors(BatchResult result) {
+        return result.getRowErrors().stream().filter(BatchResult.RowError::isRetryable).count();
+    }
+}
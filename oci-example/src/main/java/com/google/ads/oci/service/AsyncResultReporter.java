@@ -0,0 +1,172 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.googleads.v13.services.ClickConversionResult;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Writes results from a ring buffer on a single reporter thread. Workers only enqueue: uploaded conversions are
+// queued as their result messages and formatted by the reporter thread, batch lines are built without format
+// parsing. Each drained group is written to the stream in a single call. When the buffer is full, lines are dropped
+// and counted instead of holding back the upload.
+public class AsyncResultReporter implements ResultReporter, AutoCloseable {
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final Object END_OF_REPORT = new Object();
+
+    private final PrintStream out;
+    private final Level level;
+    private final BlockingQueue<Object> pending;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+
+    public AsyncResultReporter(PrintStream out, Level level) {
+        this(out, level, DEFAULT_CAPACITY);
+    }
+
+    public AsyncResultReporter(PrintStream out, Level level, int capacity) {
+        this.out = out;
+        this.level = level;
+        this.pending = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::writeLoop, "oci-report");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public Level getLevel() {
+        return level;
+    }
+
+    @Override
+    public void onBatchComplete(UploadBatch batch, BatchResult result) {
+        if (level == Level.SUMMARY) {
+            return;
+        }
+        StringBuilder line = new StringBuilder(128)
+                .append("Batch ").append(batch.getSequence())
+                .append(" (customer ").append(batch.getCustomerId());
+        if (batch.getAttempt() > 0) {
+            line.append(", attempt ").append(batch.getAttempt() + 1);
+        }
+        line.append(')');
+        if (result.isFailed()) {
+            line.append(" failed after ").append(TimeUnit.NANOSECONDS.toMillis(result.getLatencyNanos()))
+                    .append(" ms: ").append(result.getError());
+        } else {
+            line.append(": ").append(result.getSucceeded()).append(" of ").append(result.getSize())
+                    .append(" uploaded in ").append(TimeUnit.NANOSECONDS.toMillis(result.getLatencyNanos()))
+                    .append(" ms");
+            if (!result.getRowErrors().isEmpty()) {
+                line.append(", ").append(result.getRowErrors().size()).append(" row errors");
+            }
+        }
+        if (!result.getRetriedRows().isEmpty() || !result.getDeadLetteredRows().isEmpty()) {
+            line.append(", ").append(result.getRetriedRows().size()).append(" retried, ")
+                    .append(result.getDeadLetteredRows().size()).append(" dead-lettered");
+        }
+        enqueue(line.append('.').toString());
+    }
+
+    @Override
+    public void onConversionUploaded(UploadBatch batch, ClickConversionResult result) {
+        if (level == Level.ROW) {
+            enqueue(result);
+        }
+    }
+
+    private void enqueue(Object entry) {
+        if (!pending.offer(entry)) {
+            dropped.increment();
+        }
+    }
+
+    // Waits until everything enqueued so far has been written.
+    @Override
+    public void flush() {
+        CountDownLatch written = new CountDownLatch(1);
+        try {
+            pending.put(written);
+            written.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private void writeLoop() {
+        List<Object> group = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        try {
+            while (true) {
+                group.add(pending.take());
+                pending.drainTo(group);
+                boolean done = group.remove(END_OF_REPORT);
+                List<CountDownLatch> flushes = new ArrayList<>();
+                for (Object entry : group) {
+                    if (entry instanceof CountDownLatch) {
+                        flushes.add((CountDownLatch) entry);
+                        continue;
+                    }
+                    if (entry instanceof ClickConversionResult) {
+                        ClickConversionResult result = (ClickConversionResult) entry;
+                        text.append("Uploaded conversion that occurred at '").append(result.getConversionDateTime())
+                                .append("' to '").append(result.getConversionAction())
+                                .append("', GCLID: '").append(result.getGclid())
+                                .append("', WBRAID: '").append(result.getWbraid()).append("'.");
+                    } else {
+                        text.append(entry);
+                    }
+                    text.append(System.lineSeparator());
+                }
+                out.print(text);
+                out.flush();
+                flushes.forEach(CountDownLatch::countDown);
+                text.setLength(0);
+                group.clear();
+                if (done) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Writes what is still buffered. The end marker waits for space, so it is never dropped.
+    @Override
+    public void close() {
+        try {
+            pending.put(END_OF_REPORT);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (getDropped() > 0) {
+            out.println("Dropped " + getDropped() + " report lines while the reporter was behind.");
+        }
+    }
+}
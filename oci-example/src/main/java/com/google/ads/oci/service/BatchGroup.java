@@ -0,0 +1,90 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The batches cut from one contiguous range of source rows, one per customer. The range only counts as uploaded once
+// every batch in it and every retry of their conversions has completed, so listeners that track rows, like the
+// journal, are notified per group.
+public class BatchGroup {
+    private final long firstRow;
+    private final long lastRow;
+    private final long lastRowOffset;
+    private final List<UploadBatch> batches = new ArrayList<>();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private volatile boolean failed;
+
+    BatchGroup(long firstRow, long lastRow, long lastRowOffset) {
+        this.firstRow = firstRow;
+        this.lastRow = lastRow;
+        this.lastRowOffset = lastRowOffset;
+    }
+
+    // All batches must be added before the first one is submitted.
+    void add(UploadBatch batch) {
+        batches.add(batch);
+        outstanding.incrementAndGet();
+    }
+
+    // Called before the result of the attempt it retries completes, so the group stays open.
+    void addRetry() {
+        outstanding.incrementAndGet();
+    }
+
+    // Returns true for the result that completes the group.
+    boolean complete(BatchResult result) {
+        if (result.isAbandoned()) {
+            failed = true;
+        }
+        return outstanding.decrementAndGet() == 0;
+    }
+
+    // First source row covered by the group. Rows between the previous group and the first record of this one were
+    // filtered out during mapping, so the group accounts for them as well.
+    public long getFirstRow() {
+        return firstRow;
+    }
+
+    public long getLastRow() {
+        return lastRow;
+    }
+
+    public long getLastRowOffset() {
+        return lastRowOffset;
+    }
+
+    // The batches first cut from the range; retries are not included.
+    public List<UploadBatch> getBatches() {
+        return Collections.unmodifiableList(batches);
+    }
+
+    // Whether any batch of the group failed as a whole and was not retried, or ran out of retries.
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public int size() {
+        int size = 0;
+        for (UploadBatch batch : batches) {
+            size += batch.size();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+// Notified from the upload worker threads once a batch has been sent, so implementations must be thread-safe.
+public interface BatchListener {
+    void onBatchComplete(UploadBatch batch, BatchResult result);
+
+    // Called after onBatchComplete for the last batch of a group to complete.
+    default void onGroupComplete(BatchGroup group) {
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.googleads.v13.errors.GoogleAdsError;
+import com.google.ads.googleads.v13.errors.GoogleAdsException;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.protobuf.Duration;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class BatchResult {
+    // Whole-request failures that say nothing about the conversions themselves, so the batch can be sent again.
+    private static final Set<StatusCode.Code> RETRYABLE_CODES = EnumSet.of(StatusCode.Code.UNAVAILABLE,
+            StatusCode.Code.DEADLINE_EXCEEDED, StatusCode.Code.RESOURCE_EXHAUSTED, StatusCode.Code.ABORTED,
+            StatusCode.Code.INTERNAL);
+
+    private final long sequence;
+    private final int size;
+    private final int succeeded;
+    private final List<RowError> rowErrors;
+    private final String error;
+    private final String errorCode;
+    private final boolean retryable;
+    private final boolean resourceExhausted;
+    private final long retryDelayNanos;
+    private final long latencyNanos;
+    private final List<Integer> retriedRows;
+    private final List<Integer> deadLetteredRows;
+
+    private BatchResult(long sequence, int size, int succeeded, List<RowError> rowErrors, String error,
+                        String errorCode, boolean retryable, boolean resourceExhausted, long retryDelayNanos,
+                        long latencyNanos, List<Integer> retriedRows, List<Integer> deadLetteredRows) {
+        this.sequence = sequence;
+        this.size = size;
+        this.succeeded = succeeded;
+        this.rowErrors = rowErrors;
+        this.error = error;
+        this.errorCode = errorCode;
+        this.retryable = retryable;
+        this.resourceExhausted = resourceExhausted;
+        this.retryDelayNanos = retryDelayNanos;
+        this.latencyNanos = latencyNanos;
+        this.retriedRows = retriedRows;
+        this.deadLetteredRows = deadLetteredRows;
+    }
+
+    public static BatchResult completed(UploadBatch batch, int succeeded, List<RowError> rowErrors, long latencyNanos) {
+        return new BatchResult(batch.getSequence(), batch.size(), succeeded, rowErrors, null, null, false, false, 0,
+                latencyNanos, Collections.emptyList(), Collections.emptyList());
+    }
+
+    // The whole request failed, e.g. the RPC itself threw, so none of the conversions in the batch were uploaded.
+    public static BatchResult failed(UploadBatch batch, Exception e, long latencyNanos) {
+        StatusCode.Code code = e instanceof ApiException ? ((ApiException) e).getStatusCode().getCode() : null;
+        String errorCode = code != null ? code.name() : e.getClass().getSimpleName();
+        return new BatchResult(batch.getSequence(), batch.size(), 0, Collections.emptyList(), String.valueOf(e),
+                errorCode, code != null && RETRYABLE_CODES.contains(code), code == StatusCode.Code.RESOURCE_EXHAUSTED,
+                retryDelayNanos(e), latencyNanos, Collections.emptyList(), Collections.emptyList());
+    }
+
+    // The longest retry delay that the quota errors of a Google Ads failure ask for, or 0 when none is given.
+    private static long retryDelayNanos(Exception e) {
+        if (!(e instanceof GoogleAdsException)) {
+            return 0;
+        }
+        long delayNanos = 0;
+        for (GoogleAdsError error : ((GoogleAdsException) e).getGoogleAdsFailure().getErrorsList()) {
+            if (error.hasDetails() && error.getDetails().hasQuotaErrorDetails()
+                    && error.getDetails().getQuotaErrorDetails().hasRetryDelay()) {
+                Duration delay = error.getDetails().getQuotaErrorDetails().getRetryDelay();
+                delayNanos = Math.max(delayNanos, TimeUnit.SECONDS.toNanos(delay.getSeconds()) + delay.getNanos());
+            }
+        }
+        return delayNanos;
+    }
+
+    // Records which rows of the batch were queued for another attempt and which were given up on.
+    BatchResult settle(List<Integer> retriedRows, List<Integer> deadLetteredRows) {
+        return new BatchResult(sequence, size, succeeded, rowErrors, error, errorCode, retryable, resourceExhausted,
+                retryDelayNanos, latencyNanos, retriedRows, deadLetteredRows);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public int getFailed() {
+        return size - succeeded;
+    }
+
+    // Errors reported for individual conversions of a request that succeeded as a whole.
+    public List<RowError> getRowErrors() {
+        return rowErrors;
+    }
+
+    public boolean isFailed() {
+        return error != null;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    // The RPC status code of a whole-request failure, or the exception type when the call failed without one.
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    // Whether the whole request failed in a way that is worth trying again.
+    public boolean isRetryable() {
+        return retryable;
+    }
+
+    public boolean isResourceExhausted() {
+        return resourceExhausted;
+    }
+
+    // How long the API asked to wait before the next request, or 0 when it did not say.
+    public long getRetryDelayNanos() {
+        return retryDelayNanos;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    // Indices into the batch of the conversions that will be sent again in a later batch.
+    public List<Integer> getRetriedRows() {
+        return retriedRows;
+    }
+
+    // Indices into the batch of the conversions written to the dead-letter sink.
+    public List<Integer> getDeadLetteredRows() {
+        return deadLetteredRows;
+    }
+
+    // Failed as a whole and not retried, so none of the batch's conversions were or will be uploaded.
+    public boolean isAbandoned() {
+        return isFailed() && retriedRows.isEmpty();
+    }
+
+    public static class RowError {
+        private final int index;
+        private final String errorCode;
+        private final String message;
+        private final boolean retryable;
+
+        public RowError(int index, String errorCode, String message, boolean retryable) {
+            this.index = index;
+            this.errorCode = errorCode;
+            this.message = message;
+            this.retryable = retryable;
+        }
+
+        // Index of the conversion in the batch, and in the request it was sent in.
+        public int getIndex() {
+            return index;
+        }
+
+        public String getErrorCode() {
+            return errorCode;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public boolean isRetryable() {
+            return retryable;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.googleads.lib.GoogleAdsClient;
+import com.google.ads.googleads.v13.services.ConversionUploadServiceClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A fixed set of long-lived upload clients, each with its own gRPC channel, handed out round-robin. The clients are
+// thread-safe, so workers share them instead of paying channel setup, TLS handshake and token refresh per batch.
+public class ConversionClientPool implements AutoCloseable {
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final List<ConversionUploadServiceClient> clients = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ConversionClientPool(GoogleAdsClient googleAdsClient, int size) {
+        for (int i = 0; i < size; i++) {
+            clients.add(googleAdsClient.getLatestVersion().createConversionUploadServiceClient());
+        }
+    }
+
+    public ConversionUploadServiceClient next() {
+        return clients.get(Math.floorMod(next.getAndIncrement(), clients.size()));
+    }
+
+    // Lets in-flight calls finish before the channels are torn down.
+    @Override
+    public void close() {
+        clients.forEach(ConversionUploadServiceClient::shutdown);
+        try {
+            for (ConversionUploadServiceClient client : clients) {
+                if (!client.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    client.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            clients.forEach(ConversionUploadServiceClient::shutdownNow);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.oci.models.AFConversionRecord;
+import com.google.ads.oci.models.ConversionRecord;
+import com.google.common.base.Preconditions;
+import com.google.protobuf.ByteString;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Checksum;
+
+// The conversions of a batch, stored column by column instead of as one record and one protobuf per row. Values are
+// a primitive double[] with a presence bitmap. Repeating strings (conversion actions, event names, currencies and
+// conversion times) are short indices into a table of the batch. Click IDs are UTF-8 bytes in one shared arena.
+// ClickConversions are only built when the request is assembled, and records only when a row needs reporting.
+public class ConversionColumns {
+    private static final short ABSENT = -1;
+
+    private int size;
+    private long[] sourceRows;
+    private long[] sourceOffsets;
+    private long[] sourceLines;
+    private double[] values;
+    private long[] hasValue;
+    private short[] actions;
+    private short[] eventNames;
+    private short[] currencies;
+    private short[] dateTimes;
+    // Row i's GCLID ends at gclidEnds[i] and its WBRAID at wbraidEnds[i]; each starts where the previous one ended.
+    private int[] gclidEnds;
+    private int[] wbraidEnds;
+    private int[] serializedSizes;
+    private byte[] arena;
+    private int arenaLength;
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Short> stringIndices = new HashMap<>();
+    private long requestBytes;
+
+    public ConversionColumns(int capacity) {
+        int rows = Math.max(1, capacity);
+        sourceRows = new long[rows];
+        sourceOffsets = new long[rows];
+        sourceLines = new long[rows];
+        values = new double[rows];
+        hasValue = new long[(rows + 63) >>> 6];
+        actions = new short[rows];
+        eventNames = new short[rows];
+        currencies = new short[rows];
+        dateTimes = new short[rows];
+        gclidEnds = new int[rows];
+        wbraidEnds = new int[rows];
+        serializedSizes = new int[rows];
+        arena = new byte[rows * 64];
+    }
+
+    // Appends the record, to be uploaded to the given conversion action, with its serialized size as computed by
+    // RequestAssembler.serializedSize.
+    public void add(String conversionAction, ConversionRecord record, int serializedSize) {
+        String eventName = record instanceof AFConversionRecord ? ((AFConversionRecord) record).getEventName() : null;
+        add(record.getSourceRow(), record.getSourceOffset(), record.getSourceLine(), conversionAction, eventName,
+                record.getGCLID(),
+                record.getWBRAID(), record.getValue(), record.getCurrencyCode(), record.getConversionDateTime(),
+                serializedSize);
+    }
+
+    private void add(long sourceRow, long sourceOffset, long sourceLine, String conversionAction, String eventName,
+                     String gclid, String wbraid, Double value, String currencyCode, String conversionDateTime,
+                     int serializedSize) {
+        if (size == sourceRows.length) {
+            grow();
+        }
+        int row = size++;
+        sourceRows[row] = sourceRow;
+        sourceOffsets[row] = sourceOffset;
+        sourceLines[row] = sourceLine;
+        if (value != null) {
+            values[row] = value;
+            hasValue[row >>> 6] |= 1L << row;
+        }
+        actions[row] = intern(conversionAction);
+        eventNames[row] = intern(eventName);
+        currencies[row] = intern(currencyCode);
+        dateTimes[row] = intern(conversionDateTime);
+        gclidEnds[row] = append(gclid);
+        wbraidEnds[row] = append(wbraid);
+        serializedSizes[row] = serializedSize;
+        requestBytes += serializedSize;
+    }
+
+    private void grow() {
+        int rows = sourceRows.length * 2;
+        sourceRows = Arrays.copyOf(sourceRows, rows);
+        sourceOffsets = Arrays.copyOf(sourceOffsets, rows);
+        sourceLines = Arrays.copyOf(sourceLines, rows);
+        values = Arrays.copyOf(values, rows);
+        hasValue = Arrays.copyOf(hasValue, (rows + 63) >>> 6);
+        actions = Arrays.copyOf(actions, rows);
+        eventNames = Arrays.copyOf(eventNames, rows);
+        currencies = Arrays.copyOf(currencies, rows);
+        dateTimes = Arrays.copyOf(dateTimes, rows);
+        gclidEnds = Arrays.copyOf(gclidEnds, rows);
+        wbraidEnds = Arrays.copyOf(wbraidEnds, rows);
+        serializedSizes = Arrays.copyOf(serializedSizes, rows);
+    }
+
+    private short intern(String value) {
+        if (value == null) {
+            return ABSENT;
+        }
+        Short index = stringIndices.get(value);
+        if (index == null) {
+            Preconditions.checkState(strings.size() < Short.MAX_VALUE, "Too many distinct strings in one batch");
+            index = (short) strings.size();
+            strings.add(value);
+            stringIndices.put(value, index);
+        }
+        return index;
+    }
+
+    // Click IDs are base64-like, so each character is one byte; others are encoded as UTF-8.
+    private int append(String value) {
+        if (value == null) {
+            return arenaLength;
+        }
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                ensureArena(bytes.length);
+                System.arraycopy(bytes, 0, arena, arenaLength, bytes.length);
+                arenaLength += bytes.length;
+                return arenaLength;
+            }
+        }
+        ensureArena(length);
+        for (int i = 0; i < length; i++) {
+            arena[arenaLength++] = (byte) value.charAt(i);
+        }
+        return arenaLength;
+    }
+
+    private void ensureArena(int length) {
+        if (arenaLength + length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaLength + length));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Sum of the serialized sizes of the rows.
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    public long getSourceRow(int row) {
+        return sourceRows[row];
+    }
+
+    public long getSourceOffset(int row) {
+        return sourceOffsets[row];
+    }
+
+    public String getGCLID(int row) {
+        return decode(row == 0 ? 0 : wbraidEnds[row - 1], gclidEnds[row]);
+    }
+
+    public String getWBRAID(int row) {
+        return decode(gclidEnds[row], wbraidEnds[row]);
+    }
+
+    // The value of the row, or null when it has none.
+    public Double getValue(int row) {
+        return hasValue(row) ? values[row] : null;
+    }
+
+    public String getCurrencyCode(int row) {
+        return string(currencies[row]);
+    }
+
+    public String getConversionDateTime(int row) {
+        return string(dateTimes[row]);
+    }
+
+    public String getConversionAction(int row) {
+        return string(actions[row]);
+    }
+
+    boolean hasValue(int row) {
+        return (hasValue[row >>> 6] & (1L << row)) != 0;
+    }
+
+    // The unboxed value of a row that hasValue.
+    double value(int row) {
+        return values[row];
+    }
+
+    boolean hasGCLID(int row) {
+        return gclidEnds[row] > (row == 0 ? 0 : wbraidEnds[row - 1]);
+    }
+
+    boolean hasWBRAID(int row) {
+        return wbraidEnds[row] > gclidEnds[row];
+    }
+
+    // Click IDs as UTF-8 bytes, copied from the arena without decoding them to strings.
+    ByteString getGCLIDBytes(int row) {
+        int start = row == 0 ? 0 : wbraidEnds[row - 1];
+        return ByteString.copyFrom(arena, start, gclidEnds[row] - start);
+    }
+
+    ByteString getWBRAIDBytes(int row) {
+        return ByteString.copyFrom(arena, gclidEnds[row], wbraidEnds[row] - gclidEnds[row]);
+    }
+
+    // Indices into the string table of the batch, or -1 when the row has no such string; see getString.
+    int getConversionActionIndex(int row) {
+        return actions[row];
+    }
+
+    int getCurrencyCodeIndex(int row) {
+        return currencies[row];
+    }
+
+    int getConversionDateTimeIndex(int row) {
+        return dateTimes[row];
+    }
+
+    int getStringCount() {
+        return strings.size();
+    }
+
+    String getString(int index) {
+        return strings.get(index);
+    }
+
+    private String string(short index) {
+        return index == ABSENT ? null : strings.get(index);
+    }
+
+    private String decode(int start, int end) {
+        return new String(arena, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    // Recreates the row as a record, for the rare paths that report single rows, such as dead-lettering.
+    public AFConversionRecord toRecord(int row) {
+        return AFConversionRecord.fromValues(string(eventNames[row]), getGCLID(row), getWBRAID(row), getValue(row),
+                getCurrencyCode(row), getConversionDateTime(row), sourceRows[row], sourceOffsets[row],
+                sourceLines[row]);
+    }
+
+    // The given rows, in order, as a new batch of columns.
+    public ConversionColumns select(List<Integer> rows) {
+        ConversionColumns selected = new ConversionColumns(rows.size());
+        for (int row : rows) {
+            selected.add(sourceRows[row], sourceOffsets[row], sourceLines[row], getConversionAction(row),
+                    string(eventNames[row]), getGCLID(row), getWBRAID(row), getValue(row), getCurrencyCode(row),
+                    getConversionDateTime(row), serializedSizes[row]);
+        }
+        return selected;
+    }
+
+    // Feeds each row's click ID (the GCLID, or the WBRAID without one) and conversion time to the checksum, in row
+    // order, as UTF-8 bytes.
+    void updateChecksum(Checksum checksum) {
+        for (int row = 0; row < size; row++) {
+            int gclidStart = row == 0 ? 0 : wbraidEnds[row - 1];
+            if (gclidEnds[row] > gclidStart) {
+                checksum.update(arena, gclidStart, gclidEnds[row] - gclidStart);
+            } else {
+                checksum.update(arena, gclidEnds[row], wbraidEnds[row] - gclidEnds[row]);
+            }
+            byte[] dateTime = getConversionDateTime(row).getBytes(StandardCharsets.UTF_8);
+            checksum.update(dateTime, 0, dateTime.length);
+        }
+    }
+}
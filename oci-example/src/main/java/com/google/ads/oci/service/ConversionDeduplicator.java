@@ -0,0 +1,122 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.oci.models.AFConversionRecord;
+import com.google.ads.oci.models.ConversionRecord;
+import com.google.ads.oci.utils.LongHashSet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAdder;
+
+// Drops conversions whose event name, click ID and conversion time were already seen in this run or, when backed by
+// an index file, in previous runs. Keys are 64-bit fingerprints, so a set of hundreds of millions of conversions needs
+// a few GB of primitive arrays; the chance of two distinct conversions colliding stays negligible at that scale.
+public class ConversionDeduplicator implements BatchListener {
+    private static final long DEFAULT_EXPECTED_SIZE = 1 << 20;
+
+    private final LongHashSet keys;
+    private final Path indexFile;
+    private final LongAdder duplicates = new LongAdder();
+
+    private ConversionDeduplicator(LongHashSet keys, Path indexFile) {
+        this.keys = keys;
+        this.indexFile = indexFile;
+    }
+
+    public static ConversionDeduplicator inMemory() {
+        return new ConversionDeduplicator(new LongHashSet(DEFAULT_EXPECTED_SIZE), null);
+    }
+
+    // Loads the keys uploaded by previous runs from the index file, if it exists. save() writes them back.
+    public static ConversionDeduplicator persistent(Path indexFile) throws IOException {
+        LongHashSet keys = Files.exists(indexFile)
+                ? LongHashSet.load(indexFile, DEFAULT_EXPECTED_SIZE)
+                : new LongHashSet(DEFAULT_EXPECTED_SIZE);
+        return new ConversionDeduplicator(keys, indexFile);
+    }
+
+    // Called from the parsing thread before the record is handed to the upload workers. The lock is only contended
+    // while a failed batch is being forgotten.
+    public boolean firstSeen(ConversionRecord record) {
+        boolean added;
+        long key = fingerprint(record);
+        synchronized (keys) {
+            added = keys.add(key);
+        }
+        if (!added) {
+            duplicates.increment();
+        }
+        return added;
+    }
+
+    // Conversions of a batch that failed as a whole without being retried, and dead-lettered conversions, were never
+    // uploaded, so they are forgotten and a later run can send them again. Retried conversions stay until they settle.
+    @Override
+    public void onBatchComplete(UploadBatch batch, BatchResult result) {
+        if (result.isAbandoned()) {
+            synchronized (keys) {
+                batch.getRecords().forEach(record -> keys.remove(fingerprint(record)));
+            }
+        } else if (!result.getDeadLetteredRows().isEmpty()) {
+            synchronized (keys) {
+                result.getDeadLetteredRows().forEach(index -> keys.remove(fingerprint(batch.getRecords().get(index))));
+            }
+        }
+    }
+
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    public void save() throws IOException {
+        if (indexFile != null) {
+            synchronized (keys) {
+                keys.save(indexFile);
+            }
+        }
+    }
+
+    // FNV-1a over the event name, click ID and conversion time, followed by a 64-bit mix, without allocating per
+    // record. Different events of the same click at the same time go to different conversion actions, so they are
+    // distinct conversions.
+    static long fingerprint(ConversionRecord record) {
+        String eventName = record instanceof AFConversionRecord ? ((AFConversionRecord) record).getEventName() : null;
+        String gclid = record.getGCLID();
+        String clickId = gclid != null && !gclid.isEmpty() ? gclid : record.getWBRAID();
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv(hash, eventName);
+        hash = (hash ^ '|') * 0x100000001b3L;
+        hash = fnv(hash, clickId);
+        hash = (hash ^ '|') * 0x100000001b3L;
+        hash = fnv(hash, record.getConversionDateTime());
+        hash ^= hash >>> 32;
+        hash *= 0x9e3779b97f4a7c15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    private static long fnv(long hash, String value) {
+        if (value == null) {
+            return hash;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.oci.models.AFConversionRecord;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Binary form of a conversion record in the spill queue's segment files: the source row, offset and line, a byte of
+// flags, the value when there is one, then the event name, GCLID, WBRAID, currency code and conversion time, each as
+// a length-prefixed UTF-8 string with -1 for null.
+final class ConversionRecordCodec {
+    private static final int HAS_VALUE = 1;
+
+    private ConversionRecordCodec() {
+    }
+
+    // Throws BufferOverflowException when the record does not fit into the remaining buffer.
+    static void encode(AFConversionRecord record, ByteBuffer buffer) {
+        buffer.putLong(record.getSourceRow());
+        buffer.putLong(record.getSourceOffset());
+        buffer.putLong(record.getSourceLine());
+        Double value = record.getValue();
+        buffer.put((byte) (value != null ? HAS_VALUE : 0));
+        if (value != null) {
+            buffer.putDouble(value);
+        }
+        putString(buffer, record.getEventName());
+        putString(buffer, record.getGCLID());
+        putString(buffer, record.getWBRAID());
+        putString(buffer, record.getCurrencyCode());
+        putString(buffer, record.getConversionDateTime());
+    }
+
+    static AFConversionRecord decode(ByteBuffer buffer) {
+        long sourceRow = buffer.getLong();
+        long sourceOffset = buffer.getLong();
+        long sourceLine = buffer.getLong();
+        Double value = (buffer.get() & HAS_VALUE) != 0 ? buffer.getDouble() : null;
+        String eventName = getString(buffer);
+        String gclid = getString(buffer);
+        String wbraid = getString(buffer);
+        String currencyCode = getString(buffer);
+        String conversionDateTime = getString(buffer);
+        return AFConversionRecord.fromValues(eventName, gclid, wbraid, value, currencyCode, conversionDateTime,
+                sourceRow, sourceOffset, sourceLine);
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
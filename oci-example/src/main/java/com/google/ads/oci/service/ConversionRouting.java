@@ -0,0 +1,108 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.googleads.v13.utils.ResourceNames;
+import com.google.common.base.Preconditions;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Maps AppsFlyer event names to the customer account and conversion action they are uploaded to. A routing without
+// entries sends every event to its default action, which is how a single conversion action ID was used before.
+// Routes without a customer upload to the login customer.
+public class ConversionRouting {
+    private final Map<String, long[]> actions = new LinkedHashMap<>();
+    private Long defaultAction;
+
+    public static ConversionRouting single(long conversionActionId) {
+        return new ConversionRouting().setDefaultAction(conversionActionId);
+    }
+
+    // Adds a comma-separated list of eventName:conversionActionId or eventName:customerId/conversionActionId pairs,
+    // e.g. "install:123,af_purchase:1234567890/456".
+    public ConversionRouting routes(String routes) {
+        for (String route : routes.split(",")) {
+            int separator = route.lastIndexOf(':');
+            Preconditions.checkArgument(separator > 0,
+                    "Route %s is not in eventName:[customerId/]conversionActionId form", route);
+            String eventName = route.substring(0, separator).trim();
+            String target = route.substring(separator + 1).trim();
+            int slash = target.indexOf('/');
+            if (slash < 0) {
+                route(eventName, Long.parseLong(target));
+            } else {
+                route(eventName, Long.parseLong(target.substring(0, slash)), Long.parseLong(target.substring(slash + 1)));
+            }
+        }
+        return this;
+    }
+
+    public ConversionRouting route(String eventName, long conversionActionId) {
+        actions.put(eventName, new long[]{0, conversionActionId});
+        return this;
+    }
+
+    public ConversionRouting route(String eventName, long customerId, long conversionActionId) {
+        Preconditions.checkArgument(customerId > 0, "customerId must be positive");
+        actions.put(eventName, new long[]{customerId, conversionActionId});
+        return this;
+    }
+
+    // Action for events without a route of their own, or null to drop them.
+    public ConversionRouting setDefaultAction(Long conversionActionId) {
+        this.defaultAction = conversionActionId;
+        return this;
+    }
+
+    public Set<String> getEventNames() {
+        return Collections.unmodifiableSet(actions.keySet());
+    }
+
+    // Resolves event names to routes, with loginCustomerId standing in for routes without a customer. Resource names
+    // are built once here rather than for every row.
+    Resolver resolver(long loginCustomerId) {
+        Map<String, Route> routes = new HashMap<>();
+        actions.forEach((eventName, target) -> {
+            long customerId = target[0] > 0 ? target[0] : loginCustomerId;
+            routes.put(eventName, new Route(customerId, ResourceNames.conversionAction(customerId, target[1])));
+        });
+        Route defaultRoute = defaultAction == null
+                ? null : new Route(loginCustomerId, ResourceNames.conversionAction(loginCustomerId, defaultAction));
+        return eventName -> {
+            Route route = eventName == null ? null : routes.get(eventName);
+            return route != null ? route : defaultRoute;
+        };
+    }
+
+    interface Resolver {
+        // Returns the route for the event, or null when it is not routed.
+        Route route(String eventName);
+    }
+
+    static class Route {
+        final long customerId;
+        final String conversionAction;
+
+        Route(long customerId, String conversionAction) {
+            this.customerId = customerId;
+            this.conversionAction = conversionAction;
+        }
+    }
+}
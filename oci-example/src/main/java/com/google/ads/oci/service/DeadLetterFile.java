@@ -0,0 +1,137 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.oci.models.AFConversionRecord;
+import com.google.ads.oci.models.ConversionRecord;
+import com.google.ads.oci.utils.AFDateTimeConverter;
+import org.apache.commons.csv.CSVFormat;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Appends dead-lettered conversions to a CSV file in the AppsFlyer export layout, so the file can be fed back to the
+// uploader once the cause is fixed. The event time is written back in AppsFlyer form, local to the time zone of the
+// original run. Source Line, Error Code and Error Message columns follow the AppsFlyer ones and are ignored on re-runs;
+// Source Line is the line of the input file the row starts on. Upload workers only format the line; a single writer
+// thread appends it and flushes once per drained group. Workers wait once a bounded number of lines are queued.
+public class DeadLetterFile implements DeadLetterSink, AutoCloseable {
+    private static final String[] HEADER = {"Event Name", "Event Time", "Sub Param 1", "Sub Param 3", "Event Value",
+            "Event Revenue Currency", "Source Line", "Error Code", "Error Message"};
+    private static final String END_OF_FILE = "";
+    private static final int QUEUE_CAPACITY = 10_000;
+
+    private final BufferedWriter out;
+    private final BlockingQueue<String> pending = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private volatile IOException failure;
+
+    private DeadLetterFile(BufferedWriter out) {
+        this.out = out;
+        this.writer = new Thread(this::writeLoop, "oci-dead-letter");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // Opens the file for appending, writing the header if it is new or empty.
+    public static DeadLetterFile open(Path file) throws IOException {
+        boolean exists = Files.exists(file) && Files.size(file) > 0;
+        BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (!exists) {
+            out.write(CSVFormat.DEFAULT.format((Object[]) HEADER));
+            out.write("\n");
+        }
+        return new DeadLetterFile(out);
+    }
+
+    // Once the file failed to write, conversions are no longer queued; the failure is thrown by close().
+    @Override
+    public void deadLetter(ConversionRecord record, String errorCode, String message) {
+        if (failure != null) {
+            return;
+        }
+        String eventName = record instanceof AFConversionRecord ? ((AFConversionRecord) record).getEventName() : null;
+        String line = CSVFormat.DEFAULT.format(
+                eventName != null ? eventName : "install",
+                AFDateTimeConverter.toAFDateTime(record.getConversionDateTime()),
+                record.getGCLID(),
+                record.getWBRAID(),
+                record.getValue(),
+                record.getCurrencyCode(),
+                record.getSourceLine(),
+                errorCode,
+                message) + "\n";
+        try {
+            pending.put(line);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while dead-lettering row " + record.getSourceRow(), e);
+        }
+    }
+
+    private void writeLoop() {
+        List<String> group = new ArrayList<>();
+        try {
+            while (true) {
+                group.add(pending.take());
+                pending.drainTo(group);
+                boolean done = group.remove(END_OF_FILE);
+                for (String line : group) {
+                    out.write(line);
+                }
+                out.flush();
+                group.clear();
+                if (done) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to write dead-letter file, conversions are no longer recorded: " + e);
+            failure = e;
+            // Frees the workers waiting for room; what they queue after this is never written.
+            pending.clear();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Throws the error that stopped the writer, if any, so a run whose dead letters were not all recorded does not end
+    // as if they were.
+    @Override
+    public void close() throws IOException {
+        try {
+            if (writer.isAlive()) {
+                pending.put(END_OF_FILE);
+            }
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+        if (failure != null) {
+            throw new IOException("Dead-letter write failed", failure);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.oci.models.ConversionRecord;
+
+// Receives the conversions that were given up on, with the error that caused it. Called from the upload worker
+// threads, so implementations must be thread-safe.
+public interface DeadLetterSink {
+    DeadLetterSink PRINT = (record, errorCode, message) -> System.out.println(
+            "Dead-lettered row " + record.getSourceRow() + " (" + errorCode + "): " + message);
+
+    void deadLetter(ConversionRecord record, String errorCode, String message);
+}
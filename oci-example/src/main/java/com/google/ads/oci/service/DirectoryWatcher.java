@@ -0,0 +1,238 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Uploads AppsFlyer exports as they are dropped into a directory, for as long as the process runs. Files already in
+// the directory are picked up at start, later ones when they are created in it or renamed into it. Names starting
+// with a dot or ending in .tmp or .part are left alone until they are renamed, and a file is only read once its size
+// and modification time have not changed for settleMillis, so a file that is still being copied is not read half-way.
+// Up to `threads` files are uploaded at the same time through the same upload service, sharing its clients and the
+// rate limits of each account.
+//
+// Progress is kept in the state directory. While a file is uploaded, its UploadJournal there records the row ranges
+// and offsets that are done; once it is read to the end without abandoned requests, those that failed and were not
+// retried, the file is added to the completed list and its journal deleted. A restart skips completed files and
+// resumes the others from their journals. A file with abandoned requests is only picked up again by a restart.
+public class DirectoryWatcher implements AutoCloseable {
+    private static final String COMPLETED_FILE = "completed";
+
+    private final Path directory;
+    private final Path stateDirectory;
+    private final FileUpload upload;
+    private int threads = 2;
+    private long settleMillis = 1_000;
+    // Name, size and modification time of each completed file.
+    private final Set<String> completed = ConcurrentHashMap.newKeySet();
+    private final Set<Path> inProgress = ConcurrentHashMap.newKeySet();
+    private final AtomicLong uploadedFiles = new AtomicLong();
+    private final AtomicLong uploadedConversions = new AtomicLong();
+    private volatile boolean closed;
+    private volatile WatchService watchService;
+
+    public DirectoryWatcher(Path directory, Path stateDirectory, FileUpload upload) {
+        this.directory = directory;
+        this.stateDirectory = stateDirectory;
+        this.upload = upload;
+    }
+
+    // Number of files uploaded at the same time.
+    public DirectoryWatcher setThreads(int threads) {
+        Preconditions.checkArgument(threads > 0, "threads must be positive");
+        this.threads = threads;
+        return this;
+    }
+
+    // How long a file must stay unchanged before it is read.
+    public DirectoryWatcher setSettleMillis(long settleMillis) {
+        Preconditions.checkArgument(settleMillis >= 0, "settleMillis must not be negative");
+        this.settleMillis = settleMillis;
+        return this;
+    }
+
+    // Watches the directory until the watcher is closed, then waits for the files being uploaded to finish.
+    public void run() throws IOException {
+        Preconditions.checkArgument(Files.isDirectory(directory), "%s is not a directory", directory);
+        Files.createDirectories(stateDirectory);
+        Path completedFile = stateDirectory.resolve(COMPLETED_FILE);
+        if (Files.exists(completedFile)) {
+            completed.addAll(Files.readAllLines(completedFile, StandardCharsets.UTF_8));
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("oci-watch-%d").build());
+        try (WatchService watching = directory.getFileSystem().newWatchService()) {
+            watchService = watching;
+            // Registered before the first scan, so a file dropped in between is not missed.
+            directory.register(watching, StandardWatchEventKinds.ENTRY_CREATE);
+            scan(workers);
+            while (!closed) {
+                WatchKey key = watching.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        scan(workers);
+                    } else {
+                        submit(workers, directory.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    System.out.println("Stopped watching " + directory + ", it is no longer accessible");
+                    break;
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Closed by close().
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            workers.shutdown();
+            try {
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Files are submitted in name order, which is time order for timestamped exports.
+    private void scan(ExecutorService workers) throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.sorted().collect(Collectors.toList());
+        }
+        files.forEach(file -> submit(workers, file));
+    }
+
+    private void submit(ExecutorService workers, Path file) {
+        String name = file.getFileName().toString();
+        if (name.startsWith(".") || name.endsWith(".tmp") || name.endsWith(".part") || !Files.isRegularFile(file)
+                || !inProgress.add(file)) {
+            return;
+        }
+        workers.execute(() -> {
+            try {
+                process(file);
+            } finally {
+                inProgress.remove(file);
+            }
+        });
+    }
+
+    private void process(Path file) {
+        try {
+            String identity = awaitSettled(file);
+            if (identity == null || completed.contains(identity)) {
+                return;
+            }
+            Path journalFile = stateDirectory.resolve(file.getFileName() + ".journal");
+            UploadSummary summary;
+            try (UploadJournal journal = UploadJournal.open(journalFile, file)) {
+                summary = upload.upload(file, journal);
+            }
+            System.out.println(file + ": " + summary);
+            uploadedConversions.addAndGet(summary.getConversions());
+            if (summary.getAbandonedBatches() == 0) {
+                markCompleted(identity);
+                Files.deleteIfExists(journalFile);
+                uploadedFiles.incrementAndGet();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Upload of " + file + " failed: " + e);
+        }
+    }
+
+    // Waits until the file stops changing and returns its identity, or null when it disappeared or the watcher was
+    // closed first.
+    private String awaitSettled(Path file) throws IOException {
+        String previous = null;
+        try {
+            while (!closed) {
+                String identity = file.getFileName() + "," + Files.size(file) + ","
+                        + Files.getLastModifiedTime(file).toMillis();
+                if (identity.equals(previous)) {
+                    return identity;
+                }
+                previous = identity;
+                Thread.sleep(settleMillis);
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    private synchronized void markCompleted(String identity) throws IOException {
+        try (FileChannel channel = FileChannel.open(stateDirectory.resolve(COMPLETED_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap((identity + "\n").getBytes(StandardCharsets.UTF_8)));
+            channel.force(false);
+        }
+        completed.add(identity);
+    }
+
+    // Stops watching. Files that are being uploaded are finished, files that were waiting are left for a restart.
+    @Override
+    public void close() {
+        closed = true;
+        WatchService watching = watchService;
+        if (watching != null) {
+            try {
+                watching.close();
+            } catch (IOException e) {
+                System.out.println("Failed to close the watch service: " + e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Uploaded " + uploadedFiles.get() + " files with " + uploadedConversions.get() + " conversions from "
+                + directory + ".";
+    }
+
+    // Uploads one file, with its journal; the journal is a BatchListener of this upload only. Anything else that must
+    // outlive the journal is saved before returning, since the file may be marked completed right after.
+    public interface FileUpload {
+        UploadSummary upload(Path file, UploadJournal journal) throws IOException;
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.oci.models.AFConversionRecord;
+import com.google.ads.oci.utils.AFDateTimeConverter;
+import com.google.ads.oci.utils.AFRowFilter;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Accepts conversions POSTed to /conversions while the service runs and feeds them to the uploader as micro-batches.
+// A body is either CSV with an AppsFlyer export header line, or newline-delimited JSON objects with event_name,
+// event_time, gclid, wbraid, value and currency fields (application/x-ndjson or application/json). Event times are
+// in AppsFlyer form, local to the converter's time zone. Rows that the filter rejects are counted and skipped.
+//
+// A body is accepted whole or not at all: 202 when queued, 400 when a row is malformed, 413 when it is too large,
+// 429 with Retry-After when the uploader is lagging and the pending limit is reached, 503 once shutting down.
+// Requests are handled by a bounded pool; when its queue is full the accepting thread handles the request itself,
+// which slows down accepting new connections.
+public class IngestServer implements AutoCloseable {
+    private static final String[] JSON_FIELDS = {"event_name", "event_time", "gclid", "wbraid", "value", "currency"};
+    private static final CSVFormat CSV_FORMAT = CSVFormat.DEFAULT.builder()
+            .setHeader()
+            .setSkipHeaderRecord(true)
+            .build();
+
+    private final AFRowFilter rowFilter;
+    private final AFDateTimeConverter dateTimeConverter;
+    private final Gson gson = new Gson();
+    private int threads = 4;
+    private int maxBatchSize = AdaptiveBatchSizer.API_MAX_BATCH_SIZE;
+    private long lingerMillis = 1_000;
+    private int maxPending = 100_000;
+    private int maxBodyBytes = 16 * 1024 * 1024;
+    private InetAddress bindAddress = InetAddress.getLoopbackAddress();
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder ignored = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private HttpServer server;
+    private ExecutorService executor;
+    private MicroBatcher batcher;
+    private volatile boolean closing;
+
+    public IngestServer(AFRowFilter rowFilter, AFDateTimeConverter dateTimeConverter) {
+        this.rowFilter = rowFilter;
+        this.dateTimeConverter = dateTimeConverter;
+    }
+
+    // Threads handling requests.
+    public IngestServer setThreads(int threads) {
+        Preconditions.checkArgument(threads > 0, "threads must be positive");
+        this.threads = threads;
+        return this;
+    }
+
+    // Conversions after which a micro-batch is handed to the uploader without waiting for the linger time.
+    public IngestServer setMaxBatchSize(int maxBatchSize) {
+        Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    // Longest time a conversion waits for its micro-batch to fill.
+    public IngestServer setLingerMillis(long lingerMillis) {
+        Preconditions.checkArgument(lingerMillis > 0, "lingerMillis must be positive");
+        this.lingerMillis = lingerMillis;
+        return this;
+    }
+
+    // Conversions accepted but not yet taken by the uploader before requests are answered with 429.
+    public IngestServer setMaxPending(int maxPending) {
+        Preconditions.checkArgument(maxPending > 0, "maxPending must be positive");
+        this.maxPending = maxPending;
+        return this;
+    }
+
+    // Address to listen on. Only local clients can post conversions unless another interface is chosen.
+    public IngestServer setBindAddress(InetAddress bindAddress) {
+        this.bindAddress = Preconditions.checkNotNull(bindAddress, "bindAddress");
+        return this;
+    }
+
+    // Starts listening and returns the micro-batches to upload, e.g. with OCIUploadService.uploadAFConversionBatches.
+    // The iteration ends after close.
+    public Iterator<Iterator<AFConversionRecord>> start(int port) throws IOException {
+        batcher = new MicroBatcher(maxBatchSize, lingerMillis, maxPending);
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 16),
+                new ThreadFactoryBuilder().setNameFormat("oci-ingest-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        server.createContext("/conversions", this::handle);
+        server.setExecutor(executor);
+        server.start();
+        return batcher;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                respond(exchange, 405, "Only POST is supported.");
+                return;
+            }
+            byte[] body = readBody(exchange.getRequestBody());
+            if (body == null) {
+                respond(exchange, 413, "Body exceeds " + maxBodyBytes + " bytes.");
+                return;
+            }
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            String text = new String(body, StandardCharsets.UTF_8);
+            // The server runs for days, so the click age is measured from the time of each request.
+            rowFilter.refreshClickCutoff();
+            List<MicroBatcher.IngestRow> rows;
+            try {
+                rows = contentType != null && contentType.toLowerCase(Locale.ROOT).contains("json")
+                        ? parseJson(text) : parseCsv(text);
+            } catch (IllegalArgumentException | DateTimeParseException | JsonParseException e) {
+                respond(exchange, 400, e.getMessage());
+                return;
+            }
+            if (!batcher.offer(rows)) {
+                if (closing) {
+                    respond(exchange, 503, "Shutting down.");
+                } else {
+                    throttled.increment();
+                    exchange.getResponseHeaders().set("Retry-After", Long.toString(
+                            Math.max(1, TimeUnit.MILLISECONDS.toSeconds(lingerMillis))));
+                    respond(exchange, 429, "Upload is lagging, retry later.");
+                }
+                return;
+            }
+            accepted.add(rows.size());
+            respond(exchange, 202, "{\"accepted\":" + rows.size() + "}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private byte[] readBody(InputStream in) throws IOException {
+        byte[] body = ByteStreams.toByteArray(ByteStreams.limit(in, maxBodyBytes + 1L));
+        return body.length > maxBodyBytes ? null : body;
+    }
+
+    private List<MicroBatcher.IngestRow> parseCsv(String text) throws IOException {
+        List<MicroBatcher.IngestRow> rows = new ArrayList<>();
+        try (CSVParser parser = CSV_FORMAT.parse(new StringReader(text))) {
+            for (CSVRecord record : parser) {
+                try {
+                    if (rowFilter.test(record)) {
+                        rows.add(row(record.get("Event Name"), record.get("Event Time"), record.get("Sub Param 1"),
+                                record.get("Sub Param 3"), record.get("Event Value"),
+                                record.get("Event Revenue Currency")));
+                    } else {
+                        ignored.increment();
+                    }
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    throw new IllegalArgumentException("Row " + record.getRecordNumber() + ": " + e.getMessage(), e);
+                }
+            }
+        } catch (IllegalStateException e) {
+            // Missing header columns and malformed CSV are the client's fault.
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        return rows;
+    }
+
+    private List<MicroBatcher.IngestRow> parseJson(String text) throws IOException {
+        List<MicroBatcher.IngestRow> rows = new ArrayList<>();
+        BufferedReader lines = new BufferedReader(new StringReader(text));
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            JsonObject object = gson.fromJson(line, JsonObject.class);
+            if (object == null) {
+                throw new IllegalArgumentException("Line " + lineNumber + " is not a JSON object");
+            }
+            String[] fields = new String[JSON_FIELDS.length];
+            for (int i = 0; i < fields.length; i++) {
+                JsonElement element = object.get(JSON_FIELDS[i]);
+                fields[i] = element == null || element.isJsonNull() ? "" : element.getAsString();
+            }
+            if (!rowFilter.test(fields[0], fields[2], fields[3], fields[1], "")) {
+                ignored.increment();
+                continue;
+            }
+            try {
+                rows.add(row(fields[0], fields[1], fields[2], fields[3], fields[4], fields[5]));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return rows;
+    }
+
+    // Converts the event time and checks the value here, so a bad row fails its request rather than the upload.
+    private MicroBatcher.IngestRow row(String eventName, String eventTime, String gclid, String wbraid, String value,
+                                      String currencyCode) {
+        if (!value.isEmpty()) {
+            Double.parseDouble(value);
+        }
+        return new MicroBatcher.IngestRow(rowFilter.allowedEventName(eventName), gclid, wbraid, value, currencyCode,
+                dateTimeConverter.convert(eventTime));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type",
+                body.startsWith("{") ? "application/json" : "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getIgnored() {
+        return ignored.sum();
+    }
+
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    // Stops accepting conversions and ends the micro-batches after those already accepted.
+    @Override
+    public void close() {
+        closing = true;
+        if (server != null) {
+            server.stop(1);
+            executor.shutdown();
+            batcher.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Ingested %d conversions, ignored %d rows, throttled %d requests.",
+                getAccepted(), getIgnored(), getThrottled());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Histogram of nanosecond durations in log-linear buckets, in the style of HdrHistogram: each power of two is split
+// into four sub-buckets, so a recorded value is known to within 25% over the whole range of a long. Recording is a
+// few atomic adds without locks or allocation, safe from any number of threads.
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAdder items = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        record(nanos, 1);
+    }
+
+    // Records one duration that covered the given number of items, e.g. the rows of a batch.
+    public void record(long nanos, long itemCount) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        totalNanos.add(value);
+        items.add(itemCount);
+        maxNanos.accumulate(value);
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) | subBucket;
+    }
+
+    // Exclusive upper bound of the values counted in the bucket.
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+        int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        long upper = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1)) + 1) << shift;
+        return upper > 0 ? upper : Long.MAX_VALUE;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getItems() {
+        return items.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    // The duration that the given fraction of recorded values did not exceed, rounded up to its bucket.
+    public long getPercentileNanos(double fraction) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(upperBound(bucket) - 1, getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    // Number of recorded values below the given power of two, for exporting cumulative buckets.
+    long getCountBelowPowerOfTwo(int exponent) {
+        long below = 0;
+        for (int bucket = 0; bucket < BUCKETS && upperBound(bucket) <= 1L << exponent; bucket++) {
+            below += counts.get(bucket);
+        }
+        return below;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d samples, %d items, total %.3f s, p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+                getCount(), getItems(), getTotalNanos() / (double) TimeUnit.SECONDS.toNanos(1),
+                millis(getPercentileNanos(0.5)), millis(getPercentileNanos(0.99)), millis(getMaxNanos()));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.oci.models.AFConversionRecord;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Collects ingested conversions into micro-batches, handed out when they reach maxSize or lingerMillis after their
+// first conversion, whichever comes first. At most maxPending conversions wait for the uploader; offers beyond that
+// are refused whole, which is how the ingest endpoint learns that the upload side is lagging. Conversions are numbered
+// as they are accepted, so their source rows are contiguous.
+class MicroBatcher implements Iterator<Iterator<AFConversionRecord>> {
+    private static final List<AFConversionRecord> END_OF_BATCHES = Collections.emptyList();
+
+    private final int maxSize;
+    private final long lingerMillis;
+    private final Semaphore capacity;
+    private final BlockingQueue<List<AFConversionRecord>> ready = new LinkedBlockingQueue<>();
+    private final ScheduledExecutorService lingerTimer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("oci-linger-%d").setDaemon(true).build());
+    private List<AFConversionRecord> current = new ArrayList<>();
+    private long generation;
+    private long nextRow = 1;
+    private boolean closed;
+    private List<AFConversionRecord> next;
+
+    MicroBatcher(int maxSize, long lingerMillis, int maxPending) {
+        this.maxSize = maxSize;
+        this.lingerMillis = lingerMillis;
+        this.capacity = new Semaphore(maxPending);
+    }
+
+    // Accepts all of the rows or none of them. Returns false when they do not fit, or once the batcher is closed.
+    boolean offer(List<IngestRow> rows) {
+        if (rows.isEmpty()) {
+            return true;
+        }
+        if (!capacity.tryAcquire(rows.size())) {
+            return false;
+        }
+        synchronized (this) {
+            if (closed) {
+                capacity.release(rows.size());
+                return false;
+            }
+            for (IngestRow row : rows) {
+                if (current.isEmpty()) {
+                    long batchGeneration = generation;
+                    lingerTimer.schedule(() -> flush(batchGeneration), lingerMillis, TimeUnit.MILLISECONDS);
+                }
+                current.add(row.toRecord(nextRow++));
+                if (current.size() >= maxSize) {
+                    flush(generation);
+                }
+            }
+        }
+        return true;
+    }
+
+    private synchronized void flush(long batchGeneration) {
+        if (batchGeneration != generation || current.isEmpty()) {
+            return;
+        }
+        ready.add(current);
+        current = new ArrayList<>();
+        generation++;
+    }
+
+    // Hands out what was accepted so far and ends the iteration after it.
+    void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            flush(generation);
+            ready.add(END_OF_BATCHES);
+        }
+        lingerTimer.shutdownNow();
+    }
+
+    // Blocks until the next micro-batch is ready.
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = ready.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                next = END_OF_BATCHES;
+            }
+        }
+        return next != END_OF_BATCHES;
+    }
+
+    @Override
+    public Iterator<AFConversionRecord> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        List<AFConversionRecord> batch = next;
+        next = null;
+        // Room is made once the uploader takes the batch; from there the scheduler's bounded queues hold it back.
+        capacity.release(batch.size());
+        return batch.iterator();
+    }
+
+    // An ingested conversion before it is numbered.
+    static class IngestRow {
+        private final String eventName;
+        private final String gclid;
+        private final String wbraid;
+        private final String value;
+        private final String currencyCode;
+        private final String conversionDateTime;
+
+        IngestRow(String eventName, String gclid, String wbraid, String value, String currencyCode,
+                  String conversionDateTime) {
+            this.eventName = eventName;
+            this.gclid = gclid;
+            this.wbraid = wbraid;
+            this.value = value;
+            this.currencyCode = currencyCode;
+            this.conversionDateTime = conversionDateTime;
+        }
+
+        // Ingested conversions have no source file, so their line is the order in which they were accepted.
+        AFConversionRecord toRecord(long row) {
+            return AFConversionRecord.fromColumns(eventName, gclid, wbraid, value, currencyCode, conversionDateTime,
+                    row, 0, row);
+        }
+    }
+}
@@ -16,115 +16,299 @@
 package com.google.ads.oci.service;
 
 import com.google.ads.googleads.lib.GoogleAdsClient;
+import com.google.ads.googleads.v13.errors.GoogleAdsError;
 import com.google.ads.googleads.v13.errors.GoogleAdsFailure;
-import com.google.ads.googleads.v13.services.ClickConversion;
-import com.google.ads.googleads.v13.services.ConversionUploadServiceClient;
+import com.google.ads.googleads.v13.services.ClickConversionResult;
 import com.google.ads.googleads.v13.services.UploadClickConversionsRequest;
 import com.google.ads.googleads.v13.services.UploadClickConversionsResponse;
 import com.google.ads.googleads.v13.utils.ErrorUtils;
-import com.google.ads.googleads.v13.utils.ResourceNames;
 import com.google.ads.oci.models.AFConversionRecord;
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.auth.Credentials;
 import com.google.auth.oauth2.UserCredentials;
-import com.google.common.collect.Lists;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import io.grpc.LoadBalancerRegistry;
+import io.grpc.ManagedChannelBuilder;
 import io.grpc.internal.PickFirstLoadBalancerProvider;
-import io.grpc.netty.shaded.io.netty.util.internal.StringUtil;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
 
-public class OCIUploadService {
+public class OCIUploadService implements AutoCloseable {
     private final GoogleAdsClient googleAdsClient;
+    private final UploadOptions options;
+    private final ConversionClientPool clientPool;
+    private final List<BatchListener> batchListeners = new CopyOnWriteArrayList<>();
+    private volatile DeadLetterSink deadLetterSink = DeadLetterSink.PRINT;
+    private final AsyncResultReporter defaultReporter;
+    private volatile ResultReporter resultReporter;
+    private final UploadMetrics metrics = new UploadMetrics();
+    private final RequestAssembler requestAssembler = new RequestAssembler();
+    // One per customer account for the lifetime of the service, so uploads running at the same time share its limits.
+    private final ConcurrentMap<Long, UploadRateLimiter> rateLimiters = new ConcurrentHashMap<>();
 
     static {
         LoadBalancerRegistry.getDefaultRegistry().register(new PickFirstLoadBalancerProvider());
     }
 
     public OCIUploadService(String mccId, String clientId, String clientSecret, String refreshToken, String devToken) {
-        UserCredentials credentials =
-                UserCredentials.newBuilder()
+        this(mccId, clientId, clientSecret, refreshToken, devToken, new UploadOptions());
+    }
+
+    public OCIUploadService(String mccId, String clientId, String clientSecret, String refreshToken, String devToken,
+                            UploadOptions options) {
+        this.options = options;
+        // Nothing secret goes over a plaintext channel: the fake server gets placeholder tokens instead of the real ones.
+        String developerToken = options.isPlaintext() ? StaticTokenCredentials.PLAINTEXT_TOKEN : devToken;
+        Credentials credentials = options.isPlaintext()
+                ? new StaticTokenCredentials(StaticTokenCredentials.PLAINTEXT_TOKEN)
+                : UserCredentials.newBuilder()
                         .setClientId(clientId)
                         .setClientSecret(clientSecret)
                         .setRefreshToken(refreshToken)
                         .build();
 
         // Creates a GoogleAdsClient with the provided credentials.
-        googleAdsClient =
+        GoogleAdsClient.Builder builder =
                 GoogleAdsClient.newBuilder()
-                        .setDeveloperToken(devToken)
+                        .setDeveloperToken(developerToken)
                         .setCredentials(credentials)
-                        .setLoginCustomerId(Long.valueOf(mccId))
-                        .build();
+                        .setLoginCustomerId(Long.valueOf(mccId));
+        if (options.getEndpoint() != null) {
+            InstantiatingGrpcChannelProvider.Builder channelProvider =
+                    InstantiatingGrpcChannelProvider.newBuilder().setEndpoint(options.getEndpoint());
+            if (options.isPlaintext()) {
+                channelProvider.setChannelConfigurator(ManagedChannelBuilder::usePlaintext);
+            }
+            builder.setTransportChannelProvider(channelProvider.build());
+        }
+        googleAdsClient = builder.build();
+        clientPool = new ConversionClientPool(googleAdsClient, options.getChannels());
+        defaultReporter = new AsyncResultReporter(System.out, options.getReportLevel());
+        resultReporter = defaultReporter;
+    }
+
+    public UploadSummary uploadAFConversionList(List<AFConversionRecord> afConversionRecordList, long conversionId) {
+        return uploadAFConversionStream(afConversionRecordList.stream(), conversionId);
+    }
+
+    // Conversions are built into batches as records arrive and handed to the upload workers through a bounded queue,
+    // so only the batches in flight are held in memory and the first request goes out before the input is fully read.
+    public UploadSummary uploadAFConversionStream(Stream<AFConversionRecord> afConversionRecords, long conversionId) {
+        return uploadAFConversionStream(afConversionRecords, conversionId, 1);
+    }
+
+    // The stream starts at the given source row, e.g. when resuming from a journal. Batch groups account for the rows
+    // that were filtered out before their first record, so journaled ranges stay contiguous.
+    public UploadSummary uploadAFConversionStream(Stream<AFConversionRecord> afConversionRecords, long conversionId, long firstRow) {
+        return uploadAFConversionStream(afConversionRecords, ConversionRouting.single(conversionId), firstRow);
+    }
+
+    // Uploads each record to the customer and conversion action its event is routed to, in a single pass over the
+    // stream. Requests are per customer, and each customer is uploaded by its own shard of the scheduler.
+    public UploadSummary uploadAFConversionStream(Stream<AFConversionRecord> afConversionRecords, ConversionRouting routing,
+                                                  long firstRow) {
+        return uploadAFConversionStream(afConversionRecords, routing, firstRow, Collections.emptyList());
+    }
+
+    // Also notifies the given listeners of this upload's batches only, e.g. the journal of the file being uploaded
+    // while other files are uploaded at the same time.
+    public UploadSummary uploadAFConversionStream(Stream<AFConversionRecord> afConversionRecords, ConversionRouting routing,
+                                                  long firstRow, List<BatchListener> uploadListeners) {
+        return uploadAFConversionBatches(Iterators.singletonIterator(afConversionRecords.iterator()), routing, firstRow,
+                uploadListeners);
+    }
+
+    // Uploads micro-batches as they arrive, e.g. from an ingest endpoint, until the iterator ends. A micro-batch never
+    // waits for the next one to fill a request, so a conversion is sent as soon as its micro-batch is taken. Source
+    // rows must be numbered contiguously across micro-batches, starting at firstRow.
+    public UploadSummary uploadAFConversionBatches(Iterator<? extends Iterator<AFConversionRecord>> microBatches,
+                                                   ConversionRouting routing, long firstRow) {
+        return uploadAFConversionBatches(microBatches, routing, firstRow, Collections.emptyList());
+    }
+
+    private UploadSummary uploadAFConversionBatches(Iterator<? extends Iterator<AFConversionRecord>> microBatches,
+                                                    ConversionRouting routing, long firstRow,
+                                                    List<BatchListener> uploadListeners) {
+        ConversionRouting.Resolver resolver = routing.resolver(googleAdsClient.getLoginCustomerId());
+        UploadSummary summary = new UploadSummary();
+        List<BatchListener> listeners = new ArrayList<>(batchListeners);
+        listeners.addAll(uploadListeners);
+        listeners.add(summary);
+        ResultReporter reporter = resultReporter;
+        listeners.add(reporter);
+        listeners.add(metrics);
+        ShardedUploadScheduler scheduler =
+                new ShardedUploadScheduler(options, this::uploadConversions, listeners, deadLetterSink, metrics,
+                        customerId -> rateLimiters.computeIfAbsent(customerId, id -> new UploadRateLimiter(id, options)));
+        try (ShardedUploadScheduler closing = scheduler) {
+            long nextRow = firstRow;
+            long sequence = 0;
+            while (microBatches.hasNext()) {
+                PeekingIterator<AFConversionRecord> records = Iterators.peekingIterator(microBatches.next());
+                while (records.hasNext()) {
+                    BatchGroup group = nextGroup(sequence, nextRow, resolver, records, scheduler, summary);
+                    if (group.getBatches().isEmpty()) {
+                        break;
+                    }
+                    group.getBatches().forEach(scheduler::submit);
+                    sequence += group.getBatches().size();
+                    nextRow = group.getLastRow() + 1;
+                }
+            }
+        }
+        reporter.flush();
+        summary.addRateLimiters(scheduler.getRateLimiters());
+        summary.setRetried(scheduler.getRetryPolicy().getRetried());
+        return summary;
+    }
+
+    public GoogleAdsClient getGoogleAdsClient() {
+        return googleAdsClient;
     }
 
-    public void uploadAFConversionList(List<AFConversionRecord> afConversionRecordList, long conversionId) {
-        long mccID = googleAdsClient.getLoginCustomerId();
-        List<ClickConversion> conversions = afConversionRecordList.stream()
-                .map(record ->
-                        this.buildConversion(mccID, conversionId,
-                                record.getGCLID(), record.getWBRAID(), record.getConversionDateTime(), record.getValue(), record.getCurrencyCode())
-                ).collect(Collectors.toList());
-        Lists.partition(conversions, 50).forEach(partitionedConvs -> this.uploadConversions(mccID, partitionedConvs));
-    }
-
-    private ClickConversion buildConversion(
-            long customerId,
-            long conversionActionId,
-            String gclid,
-            String wbraid,
-            String conversionDateTime,
-            Double conversionValue,
-            String currencyCode) {
-        // Constructs the conversion action resource name from the customer and conversion action IDs.
-        String conversionActionResourceName =
-                ResourceNames.conversionAction(customerId, conversionActionId);
-
-        // Creates the click conversion.
-        ClickConversion.Builder clickConversionBuilder =
-                ClickConversion.newBuilder()
-                        .setConversionAction(conversionActionResourceName)
-                        .setConversionDateTime(conversionDateTime);
-        if (conversionValue != null) {
-            clickConversionBuilder.setConversionValue(conversionValue).setCurrencyCode(currencyCode);
+    // Stage timings and counters of every upload this service has run.
+    public UploadMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Registers a listener that is notified as each batch completes, in addition to the run's own summary.
+    public void addBatchListener(BatchListener listener) {
+        batchListeners.add(listener);
+    }
+
+    // Where conversions go that the API rejected for good or that ran out of retries. They are printed by default.
+    public void setDeadLetterSink(DeadLetterSink deadLetterSink) {
+        this.deadLetterSink = deadLetterSink;
+    }
+
+    // Replaces the reporter that prints batch results to stdout at the level of the upload options. The caller keeps
+    // ownership of the new reporter.
+    public void setResultReporter(ResultReporter resultReporter) {
+        this.resultReporter = resultReporter;
+    }
+
+    // Cuts the next range of rows into one batch per customer. The range ends as soon as a customer's batch reaches the
+    // adaptive row limit of its shard or the request byte budget, so the ranges of consecutive groups stay contiguous.
+    // Rows whose event has no conversion action are skipped and counted in the summary.
+    private BatchGroup nextGroup(long sequence, long firstRow, ConversionRouting.Resolver resolver,
+                                 PeekingIterator<AFConversionRecord> records, ShardedUploadScheduler scheduler,
+                                 UploadSummary summary) {
+        Map<Long, PendingBatch> pending = new LinkedHashMap<>();
+        AFConversionRecord last = null;
+        long readNanos = 0;
+        long buildNanos = 0;
+        long serializeNanos = 0;
+        long rows = 0;
+        while (true) {
+            long readStart = System.nanoTime();
+            if (!records.hasNext()) {
+                readNanos += System.nanoTime() - readStart;
+                break;
+            }
+            AFConversionRecord record = records.peek();
+            long buildStart = System.nanoTime();
+            readNanos += buildStart - readStart;
+            ConversionRouting.Route route = resolver.route(record.getEventName());
+            if (route == null) {
+                summary.addUnrouted(record.getEventName());
+                records.next();
+                continue;
+            }
+            PendingBatch batch = pending.computeIfAbsent(route.customerId,
+                    customerId -> new PendingBatch(scheduler.batchSizer(customerId)));
+            // The conversion is only sized here; its ClickConversion is built when the request is assembled.
+            int size = requestAssembler.serializedSize(route.conversionAction, record);
+            long serializeEnd = System.nanoTime();
+            serializeNanos += serializeEnd - buildStart;
+            if (batch.columns.size() > 0 && batch.columns.getRequestBytes() + size > batch.maxBytes) {
+                break;
+            }
+            last = records.next();
+            rows++;
+            batch.columns.add(route.conversionAction, last, size);
+            buildNanos += System.nanoTime() - serializeEnd;
+            if (batch.columns.size() >= batch.maxRows) {
+                break;
+            }
         }
 
-        // Sets the single specified ID field.
-        if (!StringUtil.isNullOrEmpty(gclid)) {
-            clickConversionBuilder.setGclid(gclid);
-        } else {
-            clickConversionBuilder.setWbraid(wbraid);
+        metrics.record(UploadMetrics.Stage.READ, readNanos, rows);
+        metrics.record(UploadMetrics.Stage.BUILD, buildNanos, rows);
+        metrics.record(UploadMetrics.Stage.SERIALIZE, serializeNanos, rows);
+
+        BatchGroup group = last == null
+                ? new BatchGroup(firstRow, firstRow - 1, 0)
+                : new BatchGroup(firstRow, last.getSourceRow(), last.getSourceOffset());
+        for (Map.Entry<Long, PendingBatch> entry : pending.entrySet()) {
+            PendingBatch batch = entry.getValue();
+            group.add(new UploadBatch(sequence++, entry.getKey(), batch.columns, group));
         }
+        return group;
+    }
+
+    private BatchResult uploadConversions(UploadBatch batch) {
+        long serializeStart = System.nanoTime();
+        // Uploads the click conversions. Partial failure should always be set to true, which the assembler does.
+        UploadClickConversionsRequest request = requestAssembler.assemble(batch);
+        long start = System.nanoTime();
+        metrics.record(UploadMetrics.Stage.SERIALIZE, start - serializeStart, batch.size());
+        UploadClickConversionsResponse response = clientPool.next().uploadClickConversions(request);
+        long latencyNanos = System.nanoTime() - start;
 
-        return clickConversionBuilder.build();
-    }
-
-    private void uploadConversions(long customerId, List<ClickConversion> conversions) {
-        try (ConversionUploadServiceClient conversionUploadServiceClient =
-                     googleAdsClient.getLatestVersion().createConversionUploadServiceClient()) {
-            // Uploads the click conversion. Partial failure should always be set to true.
-            UploadClickConversionsRequest.Builder reqBuilder = UploadClickConversionsRequest.newBuilder()
-                    .setCustomerId(Long.toString(customerId));
-            conversions.forEach(reqBuilder::addConversions);
-            UploadClickConversionsResponse response = conversionUploadServiceClient.uploadClickConversions(reqBuilder.setPartialFailure(true).build());
-
-            // Prints any partial errors returned.
-            if (response.hasPartialFailureError()) {
-                GoogleAdsFailure googleAdsFailure =
-                        ErrorUtils.getInstance().getGoogleAdsFailure(response.getPartialFailureError());
-                googleAdsFailure
-                        .getErrorsList()
-                        .forEach(e -> System.out.println("Partial failure occurred: " + e.getMessage()));
+        // Maps partial errors back to the conversions of the batch; the scheduler retries or dead-letters them.
+        List<BatchResult.RowError> rowErrors = new ArrayList<>();
+        if (response.hasPartialFailureError()) {
+            GoogleAdsFailure googleAdsFailure =
+                    ErrorUtils.getInstance().getGoogleAdsFailure(response.getPartialFailureError());
+            for (GoogleAdsError error : googleAdsFailure.getErrorsList()) {
+                for (Long index : ErrorUtils.getInstance().getFailedOperationIndices(error)) {
+                    rowErrors.add(new BatchResult.RowError(index.intValue(), RetryPolicy.errorCode(error),
+                            error.getMessage(), RetryPolicy.isRetryable(error)));
+                }
             }
+        }
 
-            // Prints the result.
-            response.getResultsList().forEach(result -> {
-                // Only prints valid results.
-                if (result.hasConversionAction()) {
-                    System.out.printf(
-                            "Uploaded conversion that occurred at '%s' to '%s', GCLID: '%s', WBRAID: '%s'.%n",
-                            result.getConversionDateTime(), result.getConversionAction(), result.getGclid(), result.getWbraid());
+        // Counts the valid results, reporting each of them only when the reporter asks for rows.
+        ResultReporter reporter = resultReporter;
+        boolean reportRows = reporter.getLevel() == ResultReporter.Level.ROW;
+        int succeeded = 0;
+        for (ClickConversionResult result : response.getResultsList()) {
+            if (result.hasConversionAction()) {
+                succeeded++;
+                if (reportRows) {
+                    reporter.onConversionUploaded(batch, result);
                 }
-            });
+            }
+        }
+        return BatchResult.completed(batch, succeeded, rowErrors, latencyNanos);
+    }
+
+    @Override
+    public void close() {
+        clientPool.close();
+        defaultReporter.close();
+    }
+
+    // A customer's share of the group being cut, sized by that customer's shard.
+    private static class PendingBatch {
+        private final int maxRows;
+        private final long maxBytes;
+        private final ConversionColumns columns;
+
+        PendingBatch(AdaptiveBatchSizer batchSizer) {
+            maxRows = batchSizer.nextBatchSize();
+            maxBytes = batchSizer.getMaxRequestBytes();
+            columns = new ConversionColumns(maxRows);
         }
     }
-}
\ No newline at end of file
+}
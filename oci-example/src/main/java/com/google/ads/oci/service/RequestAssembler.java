@@ -0,0 +1,117 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.googleads.v13.services.ClickConversion;
+import com.google.ads.googleads.v13.services.UploadClickConversionsRequest;
+import com.google.ads.oci.models.ConversionRecord;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Sizes rows while batches are cut and assembles their requests straight from the batch columns. A conversion
+// action's resource name is encoded and sized once for the run, and every other repeating string once per batch, so
+// rows only copy their click IDs. All rows of a request go through one ClickConversion.Builder that is cleared
+// between them, instead of a new builder and a resource name lookup per row.
+public class RequestAssembler {
+    private static final int CONVERSIONS_TAG_SIZE =
+            CodedOutputStream.computeTagSize(UploadClickConversionsRequest.CONVERSIONS_FIELD_NUMBER);
+
+    // Resource names come from the routing, so there is one entry per routed conversion action.
+    private final ConcurrentMap<String, Action> actions = new ConcurrentHashMap<>();
+
+    // Serialized size of the row's ClickConversion as an element of the request's conversions field, computed from
+    // its fields rather than from a built message.
+    public int serializedSize(String conversionAction, ConversionRecord record) {
+        int size = action(conversionAction).fieldSize
+                + CodedOutputStream.computeStringSize(ClickConversion.CONVERSION_DATE_TIME_FIELD_NUMBER,
+                record.getConversionDateTime());
+        if (record.getValue() != null) {
+            size += CodedOutputStream.computeDoubleSize(ClickConversion.CONVERSION_VALUE_FIELD_NUMBER, record.getValue());
+            if (record.getCurrencyCode() != null) {
+                size += CodedOutputStream.computeStringSize(ClickConversion.CURRENCY_CODE_FIELD_NUMBER,
+                        record.getCurrencyCode());
+            }
+        }
+        if (!isEmpty(record.getGCLID())) {
+            size += CodedOutputStream.computeStringSize(ClickConversion.GCLID_FIELD_NUMBER, record.getGCLID());
+        } else if (!isEmpty(record.getWBRAID())) {
+            size += CodedOutputStream.computeStringSize(ClickConversion.WBRAID_FIELD_NUMBER, record.getWBRAID());
+        }
+        return CONVERSIONS_TAG_SIZE + CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+    }
+
+    // Builds the partial failure request for the batch, with its conversions in row order.
+    public UploadClickConversionsRequest assemble(UploadBatch batch) {
+        ConversionColumns columns = batch.getColumns();
+        ByteString[] strings = new ByteString[columns.getStringCount()];
+        UploadClickConversionsRequest.Builder request = UploadClickConversionsRequest.newBuilder()
+                .setCustomerId(Long.toString(batch.getCustomerId()))
+                .setPartialFailure(true);
+        ClickConversion.Builder conversion = ClickConversion.newBuilder();
+        for (int row = 0; row < columns.size(); row++) {
+            int action = columns.getConversionActionIndex(row);
+            if (strings[action] == null) {
+                strings[action] = action(columns.getString(action)).resourceName;
+            }
+            conversion.clear()
+                    .setConversionActionBytes(strings[action])
+                    .setConversionDateTimeBytes(encoded(strings, columns, columns.getConversionDateTimeIndex(row)));
+            if (columns.hasValue(row)) {
+                conversion.setConversionValue(columns.value(row));
+                int currency = columns.getCurrencyCodeIndex(row);
+                if (currency >= 0) {
+                    conversion.setCurrencyCodeBytes(encoded(strings, columns, currency));
+                }
+            }
+            if (columns.hasGCLID(row)) {
+                conversion.setGclidBytes(columns.getGCLIDBytes(row));
+            } else if (columns.hasWBRAID(row)) {
+                conversion.setWbraidBytes(columns.getWBRAIDBytes(row));
+            }
+            request.addConversions(conversion.build());
+        }
+        return request.build();
+    }
+
+    private Action action(String conversionAction) {
+        return actions.computeIfAbsent(conversionAction, Action::new);
+    }
+
+    private static ByteString encoded(ByteString[] strings, ConversionColumns columns, int index) {
+        if (strings[index] == null) {
+            strings[index] = ByteString.copyFromUtf8(columns.getString(index));
+        }
+        return strings[index];
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    private static class Action {
+        private final ByteString resourceName;
+        private final int fieldSize;
+
+        Action(String resourceName) {
+            this.resourceName = ByteString.copyFromUtf8(resourceName);
+            this.fieldSize = CodedOutputStream.computeBytesSize(ClickConversion.CONVERSION_ACTION_FIELD_NUMBER,
+                    this.resourceName);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.googleads.v13.services.ClickConversionResult;
+
+// Reports upload results as they arrive. Batch results come through BatchListener; accepted conversions are only
+// passed on at ROW level, so the workers skip them otherwise. Called from the upload worker threads.
+public interface ResultReporter extends BatchListener {
+    enum Level {
+        // Nothing while uploading, only the end-of-run summary.
+        SUMMARY,
+        // One line per batch with its count, latency and failures.
+        BATCH,
+        // A line per batch and per uploaded conversion.
+        ROW
+    }
+
+    Level getLevel();
+
+    default void onConversionUploaded(UploadBatch batch, ClickConversionResult result) {
+    }
+
+    // Called once all batches of a run have completed, before its summary is returned.
+    default void flush() {
+    }
+}
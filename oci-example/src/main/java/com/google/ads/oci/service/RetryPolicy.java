@@ -0,0 +1,124 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.googleads.v13.errors.ErrorCode;
+import com.google.ads.googleads.v13.errors.GoogleAdsError;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Decides which failed conversions are sent again and when. Transient errors are retried with jittered exponential
+// backoff, up to a number of attempts per conversion and within a run-wide budget of retried conversions, so a
+// persistent outage cannot multiply the load on the API.
+public class RetryPolicy {
+    private static final long BASE_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MINUTES.toNanos(1);
+    // Retries may add at most this fraction of the conversions sent, plus a fixed allowance for small runs.
+    private static final double BUDGET_RATIO = 0.2;
+    private static final long MIN_BUDGET = 1_000;
+
+    private final int maxAttempts;
+    private final LongAdder sent = new LongAdder();
+    private final AtomicLong retried = new AtomicLong();
+
+    RetryPolicy(UploadOptions options) {
+        this.maxAttempts = options.getMaxAttempts();
+    }
+
+    void onSent(UploadBatch batch) {
+        if (batch.getAttempt() == 0) {
+            sent.add(batch.size());
+        }
+    }
+
+    // Takes the retry of the given number of conversions of the batch out of the budget, if the budget and the
+    // batch's attempts allow it.
+    boolean tryRetry(UploadBatch batch, int conversions) {
+        if (batch.getAttempt() + 1 >= maxAttempts) {
+            return false;
+        }
+        long budget = (long) (sent.sum() * BUDGET_RATIO) + MIN_BUDGET;
+        while (true) {
+            long current = retried.get();
+            if (current + conversions > budget) {
+                return false;
+            }
+            if (retried.compareAndSet(current, current + conversions)) {
+                return true;
+            }
+        }
+    }
+
+    // Exponential in the attempt number, with the upper half randomized so retries of concurrent batches spread
+    // out. A retry delay asked for by the API is always honored.
+    long backoffNanos(int attempt, long retryDelayNanos) {
+        long backoff = Math.min(MAX_BACKOFF_NANOS, BASE_BACKOFF_NANOS << Math.min(attempt, 16));
+        long jittered = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        return Math.max(jittered, retryDelayNanos);
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    // Errors of single conversions that are caused by the API rather than the conversion, so a later attempt can
+    // succeed.
+    public static boolean isRetryable(GoogleAdsError error) {
+        ErrorCode errorCode = error.getErrorCode();
+        switch (errorCode.getErrorCodeCase()) {
+            case INTERNAL_ERROR:
+                return true;
+            case DATABASE_ERROR:
+                switch (errorCode.getDatabaseError()) {
+                    case CONCURRENT_MODIFICATION:
+                        return true;
+                    default:
+                        return false;
+                }
+            case QUOTA_ERROR:
+                switch (errorCode.getQuotaError()) {
+                    case RESOURCE_EXHAUSTED:
+                    case RESOURCE_TEMPORARILY_EXHAUSTED:
+                        return true;
+                    default:
+                        return false;
+                }
+            default:
+                return false;
+        }
+    }
+
+    // Error category and value, e.g. CONVERSION_UPLOAD_ERROR.UNPARSEABLE_GCLID.
+    public static String errorCode(GoogleAdsError error) {
+        ErrorCode errorCode = error.getErrorCode();
+        ErrorCode.ErrorCodeCase errorCase = errorCode.getErrorCodeCase();
+        switch (errorCase) {
+            case CONVERSION_UPLOAD_ERROR:
+                return errorCase + "." + errorCode.getConversionUploadError();
+            case DATABASE_ERROR:
+                return errorCase + "." + errorCode.getDatabaseError();
+            case INTERNAL_ERROR:
+                return errorCase + "." + errorCode.getInternalError();
+            case QUOTA_ERROR:
+                return errorCase + "." + errorCode.getQuotaError();
+            default:
+                return errorCase.toString();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// Uploads batches on one UploadEngine per customer account. Each shard has its own queue, workers and adaptive batch
+// size, and the rate limiter of its account, so a slow or throttled account only holds back its own uploads. Rate
+// limiters come from the caller, so schedulers running at the same time can share an account's limits. The producer
+// blocks only once that account's queue is full, which keeps memory bounded. Shards are created by the producer
+// thread.
+//
+// Conversions that failed for transient reasons are put back on their shard's queue after a backoff, as a smaller
+// batch in the same group; conversions the API rejected for good go to the dead-letter sink. The timer shared by all
+// shards never blocks on a full queue, so a backed-up account cannot delay the retries of the others.
+class ShardedUploadScheduler implements AutoCloseable {
+    // How long a retry waits before trying again when its shard's queue is full.
+    private static final long REQUEUE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final UploadOptions options;
+    private final Function<UploadBatch, BatchResult> uploader;
+    private final List<BatchListener> listeners;
+    private final DeadLetterSink deadLetters;
+    private final UploadMetrics metrics;
+    private final Function<Long, UploadRateLimiter> rateLimiters;
+    private final RetryPolicy retryPolicy;
+    private final Map<Long, Shard> shards = new LinkedHashMap<>();
+    private final ScheduledExecutorService retryTimer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("oci-retry-%d").setDaemon(true).build());
+    // Batches submitted or scheduled for retry whose listeners have not run yet.
+    private long outstanding;
+
+    ShardedUploadScheduler(UploadOptions options, Function<UploadBatch, BatchResult> uploader,
+                           List<BatchListener> listeners, DeadLetterSink deadLetters, UploadMetrics metrics,
+                           Function<Long, UploadRateLimiter> rateLimiters) {
+        this.options = options;
+        this.uploader = uploader;
+        this.listeners = listeners;
+        this.deadLetters = deadLetters;
+        this.metrics = metrics;
+        this.rateLimiters = rateLimiters;
+        this.retryPolicy = new RetryPolicy(options);
+    }
+
+    AdaptiveBatchSizer batchSizer(long customerId) {
+        return shard(customerId).batchSizer;
+    }
+
+    // Rate limiters of the shards created so far, with their throughput and throttling figures.
+    List<UploadRateLimiter> getRateLimiters() {
+        List<UploadRateLimiter> rateLimiters = new ArrayList<>();
+        shards.values().forEach(shard -> rateLimiters.add(shard.rateLimiter));
+        return rateLimiters;
+    }
+
+    RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    void submit(UploadBatch batch) {
+        Shard shard = shard(batch.getCustomerId());
+        changeOutstanding(1);
+        try {
+            shard.engine.submit(batch);
+        } catch (RuntimeException e) {
+            changeOutstanding(-1);
+            throw e;
+        }
+    }
+
+    private Shard shard(long customerId) {
+        return shards.computeIfAbsent(customerId, Shard::new);
+    }
+
+    private synchronized void changeOutstanding(long delta) {
+        outstanding += delta;
+        if (outstanding == 0) {
+            notifyAll();
+        }
+    }
+
+    // Waits for every batch and all of its retries to settle, then stops the shards.
+    @Override
+    public void close() {
+        synchronized (this) {
+            try {
+                while (outstanding > 0) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        retryTimer.shutdownNow();
+        shards.values().forEach(shard -> shard.engine.close());
+    }
+
+    private class Shard {
+        private final AdaptiveBatchSizer batchSizer = new AdaptiveBatchSizer(options);
+        private final UploadRateLimiter rateLimiter;
+        private final UploadEngine engine;
+
+        Shard(long customerId) {
+            rateLimiter = rateLimiters.apply(customerId);
+            List<BatchListener> shardListeners = new ArrayList<>(listeners);
+            shardListeners.add(batchSizer);
+            shardListeners.add(rateLimiter);
+            // A batch only stops counting as outstanding once every listener has seen it, or failed to.
+            engine = new UploadEngine(options, this::upload, shardListeners, "oci-upload-" + customerId + "-%d",
+                    batch -> changeOutstanding(-1));
+        }
+
+        private BatchResult upload(UploadBatch batch) {
+            metrics.record(UploadMetrics.Stage.THROTTLE, rateLimiter.acquire(batch), batch.size());
+            retryPolicy.onSent(batch);
+            return settle(batch, UploadEngine.upload(uploader, batch));
+        }
+
+        // Splits the failed conversions of the batch into the ones sent again and the ones given up on.
+        private BatchResult settle(UploadBatch batch, BatchResult result) {
+            List<Integer> retried = new ArrayList<>();
+            List<Integer> deadLettered = new ArrayList<>();
+            if (result.isFailed()) {
+                // A whole request that failed for good is dead-lettered with the RPC status. Its group stays
+                // unacknowledged in the journal, so a restart sends it again.
+                boolean retry = result.isRetryable() && retryPolicy.tryRetry(batch, batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    if (retry) {
+                        retried.add(i);
+                    } else {
+                        deadLettered.add(i);
+                        deadLetters.deadLetter(batch.getRecords().get(i), result.getErrorCode(), result.getError());
+                    }
+                }
+            } else if (!result.getRowErrors().isEmpty()) {
+                List<BatchResult.RowError> retryable = new ArrayList<>();
+                BitSet seen = new BitSet(batch.size());
+                for (BatchResult.RowError rowError : result.getRowErrors()) {
+                    int index = rowError.getIndex();
+                    if (index < 0 || index >= batch.size() || seen.get(index)) {
+                        continue;
+                    }
+                    seen.set(index);
+                    if (rowError.isRetryable()) {
+                        retryable.add(rowError);
+                    } else {
+                        deadLettered.add(index);
+                        deadLetters.deadLetter(batch.getRecords().get(index), rowError.getErrorCode(), rowError.getMessage());
+                    }
+                }
+                if (!retryable.isEmpty()) {
+                    boolean retry = retryPolicy.tryRetry(batch, retryable.size());
+                    for (BatchResult.RowError rowError : retryable) {
+                        if (retry) {
+                            retried.add(rowError.getIndex());
+                        } else {
+                            deadLettered.add(rowError.getIndex());
+                            deadLetters.deadLetter(batch.getRecords().get(rowError.getIndex()),
+                                    rowError.getErrorCode(), rowError.getMessage());
+                        }
+                    }
+                }
+            }
+
+            if (!retried.isEmpty()) {
+                Collections.sort(retried);
+                UploadBatch retryBatch = batch.retry(retried);
+                if (batch.getGroup() != null) {
+                    batch.getGroup().addRetry();
+                }
+                changeOutstanding(1);
+                long delayNanos = retryPolicy.backoffNanos(batch.getAttempt(), result.getRetryDelayNanos());
+                scheduleRetry(retryBatch, delayNanos);
+            }
+            return result.settle(retried, deadLettered);
+        }
+
+        // Queues the retry once the delay is over, checking again a little later for as long as the queue is full.
+        private void scheduleRetry(UploadBatch retryBatch, long delayNanos) {
+            retryTimer.schedule(() -> {
+                if (!engine.offer(retryBatch)) {
+                    scheduleRetry(retryBatch, REQUEUE_DELAY_NANOS);
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.oci.models.AFConversionRecord;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.stream.Stream;
+
+// Decouples parsing from uploading. A reader thread drains the parsed records into memory up to memoryCapacity and
+// appends the rest to segment files in the spill directory, which the uploader reads back in order. So the parser
+// runs at full speed and closes the input once it is read, while at most memoryCapacity records are held on the heap.
+// Records only go to memory again once everything on disk is read, so the order is kept. Segments are deleted as soon
+// as they are read; nothing on disk outlives the queue, resuming is left to the journal.
+//
+// Each record is written length-prefixed. Spilled records are buffered into writes of up to BUFFER_BYTES, and only
+// handed out once written; the buffer is written early when the uploader is waiting for them.
+public class SpillQueue implements Iterator<AFConversionRecord>, AutoCloseable {
+    public static final int DEFAULT_MEMORY_CAPACITY = 100_000;
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private static final AFConversionRecord END_OF_STREAM =
+            AFConversionRecord.fromValues(null, null, null, null, null, null, -1, -1, -1);
+
+    private final Path directory;
+    private final int memoryCapacity;
+    private final int segmentBytes;
+    private final Queue<AFConversionRecord> memory = new ArrayDeque<>();
+    // Segments written to but not yet read from; the last one is the writer's.
+    private final Queue<Segment> segments = new ArrayDeque<>();
+    private final Thread reader;
+    private volatile boolean closed;
+    // Records written to segments and not yet taken.
+    private long spilled;
+    private long spilledTotal;
+    private long segmentCount;
+    private boolean ended;
+    private boolean waiting;
+    private RuntimeException failure;
+
+    // Only used by the reader thread.
+    private Segment writeSegment;
+    private ByteBuffer encoded = ByteBuffer.allocate(1024);
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(BUFFER_BYTES);
+    // Records in writeBuffer, not yet written to writeSegment.
+    private int buffered;
+
+    // Only used by the uploading thread.
+    private Segment takeSegment;
+    private ByteBuffer takeBuffer = ByteBuffer.allocate(BUFFER_BYTES);
+    private AFConversionRecord next;
+
+    private SpillQueue(Path directory, int memoryCapacity, int segmentBytes, Stream<AFConversionRecord> records) {
+        this.directory = directory;
+        this.memoryCapacity = memoryCapacity;
+        this.segmentBytes = segmentBytes;
+        this.reader = new Thread(() -> read(records), "oci-spill");
+        reader.setDaemon(true);
+    }
+
+    // Starts reading the stream into the queue; the stream is closed once it is read, or when the queue is closed.
+    public static SpillQueue start(Stream<AFConversionRecord> records, Path directory, int memoryCapacity,
+                                   int segmentBytes) throws IOException {
+        Preconditions.checkArgument(memoryCapacity > 0, "memoryCapacity must be positive");
+        Preconditions.checkArgument(segmentBytes > 0, "segmentBytes must be positive");
+        Files.createDirectories(directory);
+        SpillQueue queue = new SpillQueue(directory, memoryCapacity, segmentBytes, records);
+        queue.reader.start();
+        return queue;
+    }
+
+    private void read(Stream<AFConversionRecord> records) {
+        try (Stream<AFConversionRecord> closing = records) {
+            Iterator<AFConversionRecord> iterator = closing.iterator();
+            while (!closed && iterator.hasNext()) {
+                put(iterator.next());
+            }
+            flush();
+        } catch (IOException e) {
+            fail(new UncheckedIOException(e));
+        } catch (RuntimeException e) {
+            fail(e);
+        }
+        // The records buffered before a failure are still handed out.
+        try {
+            flush();
+        } catch (IOException e) {
+            fail(new UncheckedIOException(e));
+        }
+        synchronized (this) {
+            ended = true;
+            notifyAll();
+        }
+    }
+
+    private synchronized void fail(RuntimeException e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    private void put(AFConversionRecord record) throws IOException {
+        synchronized (this) {
+            if (spilled == 0 && buffered == 0 && memory.size() < memoryCapacity) {
+                memory.add(record);
+                signal();
+                return;
+            }
+        }
+        encode(record);
+        if (writeSegment == null
+                || (long) writeSegment.written + writeBuffer.position() + encoded.remaining() > segmentBytes) {
+            flush();
+            Segment segment = new Segment(directory);
+            synchronized (this) {
+                segments.add(segment);
+                segmentCount++;
+            }
+            writeSegment = segment;
+        }
+        if (writeBuffer.remaining() < encoded.remaining()) {
+            flush();
+            if (writeBuffer.capacity() < encoded.remaining()) {
+                writeBuffer = ByteBuffer.allocate(encoded.remaining());
+            }
+        }
+        writeBuffer.put(encoded);
+        buffered++;
+        boolean uploaderWaiting;
+        synchronized (this) {
+            uploaderWaiting = waiting;
+        }
+        if (uploaderWaiting || !writeBuffer.hasRemaining()) {
+            flush();
+        }
+    }
+
+    // Writes the buffered records to the segment and hands them out.
+    private void flush() throws IOException {
+        if (buffered == 0) {
+            return;
+        }
+        writeBuffer.flip();
+        writeSegment.write(writeBuffer);
+        writeBuffer.clear();
+        synchronized (this) {
+            writeSegment.committed = writeSegment.written;
+            spilled += buffered;
+            spilledTotal += buffered;
+            signal();
+        }
+        buffered = 0;
+    }
+
+    private void encode(AFConversionRecord record) {
+        while (true) {
+            encoded.clear();
+            try {
+                encoded.position(Integer.BYTES);
+                ConversionRecordCodec.encode(record, encoded);
+                encoded.putInt(0, encoded.position() - Integer.BYTES);
+                encoded.flip();
+                Preconditions.checkArgument(encoded.remaining() <= segmentBytes,
+                        "Row %s does not fit into a spill segment", record.getSourceRow());
+                return;
+            } catch (BufferOverflowException e) {
+                encoded = ByteBuffer.allocate(encoded.capacity() * 2);
+            }
+        }
+    }
+
+    private void signal() {
+        if (waiting) {
+            notifyAll();
+        }
+    }
+
+    // Blocks until the next record is parsed, or the input is read to the end.
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = take();
+        }
+        return next != END_OF_STREAM;
+    }
+
+    @Override
+    public AFConversionRecord next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        AFConversionRecord record = next;
+        next = null;
+        return record;
+    }
+
+    private AFConversionRecord take() {
+        int committed;
+        synchronized (this) {
+            while (memory.isEmpty() && spilled == 0 && !ended) {
+                waiting = true;
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // Ending the stream here would make a half-read input look uploaded.
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new InterruptedIOException("Interrupted while waiting for input"));
+                } finally {
+                    waiting = false;
+                }
+            }
+            if (!memory.isEmpty()) {
+                return memory.poll();
+            }
+            if (spilled == 0) {
+                // Reading failed part way; the records before the failure were handed out.
+                if (failure != null) {
+                    throw failure;
+                }
+                return END_OF_STREAM;
+            }
+            spilled--;
+            // A spilled record is left, so a segment that is read up to its end was sealed by the writer.
+            while (takeSegment == null || !takeBuffer.hasRemaining() && takeSegment.read == takeSegment.committed) {
+                if (takeSegment != null) {
+                    takeSegment.delete();
+                }
+                takeSegment = segments.poll();
+                takeBuffer.limit(0);
+            }
+            committed = takeSegment.committed;
+        }
+        try {
+            fill(Integer.BYTES, committed);
+            int length = takeBuffer.getInt();
+            fill(length, committed);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return ConversionRecordCodec.decode(takeBuffer);
+    }
+
+    // Reads ahead in the segment until at least the given number of bytes are buffered. The record they belong to was
+    // written completely, so they are all below committed.
+    private void fill(int bytes, int committed) throws IOException {
+        if (takeBuffer.remaining() >= bytes) {
+            return;
+        }
+        if (takeBuffer.capacity() < bytes) {
+            takeBuffer = ByteBuffer.allocate(bytes).put(takeBuffer);
+        } else {
+            takeBuffer.compact();
+        }
+        while (takeBuffer.position() < bytes) {
+            takeSegment.read(takeBuffer, committed);
+        }
+        takeBuffer.flip();
+    }
+
+    // Stops reading the input and deletes the segments that are left.
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (takeSegment != null) {
+                takeSegment.delete();
+            }
+            segments.forEach(Segment::delete);
+            segments.clear();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Spilled " + spilledTotal + " records to " + segmentCount + " segment files in " + directory + ".";
+    }
+
+    // An append-only segment file, written and read with positional I/O on a single channel. Its pages are page
+    // cache rather than heap.
+    private static class Segment {
+        private final Path file;
+        private final FileChannel channel;
+        // Bytes written, only used by the reader thread.
+        private int written;
+        // Bytes of complete records, published to the uploading thread under the queue's lock.
+        private int committed;
+        // Bytes read back, only used by the uploading thread.
+        private int read;
+
+        Segment(Path directory) throws IOException {
+            this.file = Files.createTempFile(directory, "oci-spill-", ".seg");
+            try {
+                this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                Files.deleteIfExists(file);
+                throw e;
+            }
+        }
+
+        void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer, written);
+            }
+        }
+
+        // Reads at most up to committed, which is never past the end of the file.
+        void read(ByteBuffer buffer, int committed) throws IOException {
+            ByteBuffer window = buffer.duplicate();
+            window.limit(Math.min(buffer.limit(), buffer.position() + committed - read));
+            int n = channel.read(window, read);
+            if (n <= 0) {
+                throw new IOException("Spill segment " + file + " ends before byte " + committed);
+            }
+            buffer.position(window.position());
+            read += n;
+        }
+
+        void delete() {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.out.println("Failed to delete spill segment " + file + ": " + e);
+            }
+        }
+    }
+}
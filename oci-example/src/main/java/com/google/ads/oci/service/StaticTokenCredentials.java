@@ -0,0 +1,60 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.auth.Credentials;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// Sends a fixed bearer token and never refreshes it. Used for plaintext endpoints such as a local fake upload server,
+// where OAuth credentials would require a network round-trip and gRPC refuses to attach Google credentials anyway.
+class StaticTokenCredentials extends Credentials {
+    // Sent to plaintext endpoints in place of any real credential.
+    static final String PLAINTEXT_TOKEN = "plaintext-placeholder";
+
+    private final Map<String, List<String>> metadata;
+
+    StaticTokenCredentials(String token) {
+        this.metadata = Collections.singletonMap("Authorization", Collections.singletonList("Bearer " + token));
+    }
+
+    @Override
+    public String getAuthenticationType() {
+        return "OAuth2";
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestMetadata(URI uri) {
+        return metadata;
+    }
+
+    @Override
+    public boolean hasRequestMetadata() {
+        return true;
+    }
+
+    @Override
+    public boolean hasRequestMetadataOnly() {
+        return true;
+    }
+
+    @Override
+    public void refresh() {
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.oci.models.ConversionRecord;
+
+import java.util.AbstractList;
+import java.util.List;
+
+public class UploadBatch {
+    private final long sequence;
+    private final long customerId;
+    private final ConversionColumns columns;
+    private final BatchGroup group;
+    private final int attempt;
+
+    public UploadBatch(long sequence, long customerId, ConversionColumns columns, BatchGroup group) {
+        this(sequence, customerId, columns, group, 0);
+    }
+
+    private UploadBatch(long sequence, long customerId, ConversionColumns columns, BatchGroup group, int attempt) {
+        this.sequence = sequence;
+        this.customerId = customerId;
+        this.columns = columns;
+        this.group = group;
+        this.attempt = attempt;
+    }
+
+    // The conversions at the given indices, as the next attempt of this batch within the same group.
+    UploadBatch retry(List<Integer> indices) {
+        return new UploadBatch(sequence, customerId, columns.select(indices), group, attempt + 1);
+    }
+
+    static UploadBatch empty() {
+        return new UploadBatch(-1, 0, new ConversionColumns(0), null);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getCustomerId() {
+        return customerId;
+    }
+
+    public ConversionColumns getColumns() {
+        return columns;
+    }
+
+    // Source records, index-aligned with the columns. Each is recreated from the columns when it is read.
+    public List<ConversionRecord> getRecords() {
+        return new AbstractList<ConversionRecord>() {
+            @Override
+            public ConversionRecord get(int index) {
+                return columns.toRecord(index);
+            }
+
+            @Override
+            public int size() {
+                return columns.size();
+            }
+        };
+    }
+
+    // Serialized size of the conversions field of the request, as accumulated while the batch was built.
+    public long getRequestBytes() {
+        return columns.getRequestBytes();
+    }
+
+    // The row range this batch was cut from, together with the other customers' batches for the same rows.
+    public BatchGroup getGroup() {
+        return group;
+    }
+
+    // 0 for the first upload of the batch's conversions, counting up for each retry.
+    public int getAttempt() {
+        return attempt;
+    }
+
+    public int size() {
+        return columns.size();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Uploads batches on a fixed number of worker threads. Batches are handed over through a bounded queue, so a producer
+// that outpaces the API blocks in submit() instead of buffering the whole file in memory.
+public class UploadEngine implements AutoCloseable {
+    private static final UploadBatch END_OF_STREAM = UploadBatch.empty();
+
+    private final BlockingQueue<UploadBatch> queue;
+    private final ExecutorService workers;
+    private final int workerCount;
+    private final Function<UploadBatch, BatchResult> uploader;
+    private final List<BatchListener> listeners;
+    private final Consumer<UploadBatch> settled;
+
+    public UploadEngine(UploadOptions options, Function<UploadBatch, BatchResult> uploader, List<BatchListener> listeners) {
+        this(options, uploader, listeners, "oci-upload-%d", batch -> {
+        });
+    }
+
+    // settled runs for every batch once its listeners were notified, even when one of them failed.
+    public UploadEngine(UploadOptions options, Function<UploadBatch, BatchResult> uploader, List<BatchListener> listeners,
+                        String threadNameFormat, Consumer<UploadBatch> settled) {
+        this.queue = new ArrayBlockingQueue<>(options.getQueueCapacity());
+        this.workerCount = options.getWorkers();
+        this.uploader = uploader;
+        this.listeners = listeners;
+        this.settled = settled;
+        this.workers = Executors.newFixedThreadPool(workerCount,
+                new ThreadFactoryBuilder().setNameFormat(threadNameFormat).build());
+        for (int i = 0; i < workerCount; i++) {
+            workers.execute(this::drain);
+        }
+    }
+
+    public void submit(UploadBatch batch) {
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing batch " + batch.getSequence(), e);
+        }
+    }
+
+    // Queues the batch only if there is room right away, for callers that must not block, e.g. a shared timer.
+    public boolean offer(UploadBatch batch) {
+        return queue.offer(batch);
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                UploadBatch batch = queue.take();
+                if (batch == END_OF_STREAM) {
+                    return;
+                }
+                try {
+                    BatchResult result = upload(batch);
+                    for (BatchListener listener : listeners) {
+                        notify(listener, batch, () -> listener.onBatchComplete(batch, result));
+                    }
+                    BatchGroup group = batch.getGroup();
+                    if (group != null && group.complete(result)) {
+                        for (BatchListener listener : listeners) {
+                            notify(listener, batch, () -> listener.onGroupComplete(group));
+                        }
+                    }
+                } finally {
+                    settled.accept(batch);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // A failing listener is reported and skipped, so the worker and the other listeners carry on.
+    private static void notify(BatchListener listener, UploadBatch batch, Runnable notification) {
+        try {
+            notification.run();
+        } catch (RuntimeException e) {
+            System.out.println("Listener " + listener.getClass().getSimpleName() + " failed on batch "
+                    + batch.getSequence() + ": " + e);
+        }
+    }
+
+    private BatchResult upload(UploadBatch batch) {
+        return upload(uploader, batch);
+    }
+
+    // An uploader that throws fails the batch as a whole instead of the worker.
+    static BatchResult upload(Function<UploadBatch, BatchResult> uploader, UploadBatch batch) {
+        long start = System.nanoTime();
+        try {
+            return uploader.apply(batch);
+        } catch (RuntimeException e) {
+            System.out.println("Upload of batch " + batch.getSequence() + " failed: " + e);
+            return BatchResult.failed(batch, e, System.nanoTime() - start);
+        }
+    }
+
+    // Waits for every queued batch to be uploaded.
+    @Override
+    public void close() {
+        for (int i = 0; i < workerCount; i++) {
+            submit(END_OF_STREAM);
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
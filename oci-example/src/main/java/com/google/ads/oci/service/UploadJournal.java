@@ -0,0 +1,210 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+// Append-only record of the source row ranges whose batches have been uploaded. Each line holds the first and last
+// row of a batch group, the character offset of its last row, its conversion count and a CRC32 of its click IDs and
+// times.
+// Lines are appended by a single writer thread that fsyncs once per drained group, so upload workers never wait on
+// the disk; a crash can lose the last few acknowledgements, which only means re-uploading those batches.
+public class UploadJournal implements BatchListener, AutoCloseable {
+    private static final String HEADER_PREFIX = "# input=";
+    private static final String END_OF_JOURNAL = "";
+
+    private final FileChannel channel;
+    private final BlockingQueue<String> pending = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    // Acknowledged ranges after the resume point, from previous runs, sorted by first row.
+    private final List<long[]> acknowledged;
+    private final ResumePoint resumePoint;
+    private volatile IOException failure;
+
+    private UploadJournal(FileChannel channel, List<long[]> ranges) {
+        this.channel = channel;
+        ranges.sort(Comparator.comparingLong(range -> range[0]));
+
+        // The resume point is the end of the contiguous acknowledged prefix of the file.
+        long row = 0;
+        long offset = 0;
+        List<long[]> ahead = new ArrayList<>();
+        for (long[] range : ranges) {
+            if (range[0] <= row + 1) {
+                if (range[1] > row) {
+                    row = range[1];
+                    offset = range[2];
+                }
+            } else {
+                ahead.add(range);
+            }
+        }
+        this.resumePoint = new ResumePoint(row, offset);
+        this.acknowledged = ahead;
+
+        this.writer = new Thread(this::writeLoop, "oci-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // Opens the journal for the given input file, creating it if needed. A journal written for a different input file,
+    // or for the same file after it was modified, is rejected because its row offsets would no longer be valid.
+    public static UploadJournal open(Path journalFile, Path inputFile) throws IOException {
+        String header = HEADER_PREFIX + inputFile.toAbsolutePath() + " size=" + Files.size(inputFile)
+                + " modified=" + Files.getLastModifiedTime(inputFile).toMillis();
+        List<long[]> ranges = new ArrayList<>();
+        if (Files.exists(journalFile) && Files.size(journalFile) > 0) {
+            List<String> lines = Files.readAllLines(journalFile, StandardCharsets.UTF_8);
+            if (!lines.get(0).equals(header)) {
+                throw new IllegalStateException("Journal " + journalFile + " was written for a different input: " + lines.get(0));
+            }
+            for (String line : lines.subList(1, lines.size())) {
+                String[] fields = line.split(",");
+                // A torn last line from a crash is ignored; that batch is simply uploaded again.
+                if (fields.length == 5) {
+                    ranges.add(new long[]{Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2])});
+                }
+            }
+        }
+
+        FileChannel channel = FileChannel.open(journalFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (ranges.isEmpty() && channel.size() == 0) {
+            channel.write(ByteBuffer.wrap((header + "\n").getBytes(StandardCharsets.UTF_8)));
+            channel.force(false);
+        }
+        return new UploadJournal(channel, ranges);
+    }
+
+    public ResumePoint getResumePoint() {
+        return resumePoint;
+    }
+
+    // Whether the row was already uploaded by a previous run, in a batch beyond the resume point.
+    public boolean isAcknowledged(long row) {
+        if (row <= resumePoint.getRow()) {
+            return true;
+        }
+        int low = 0;
+        int high = acknowledged.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long[] range = acknowledged.get(mid);
+            if (row < range[0]) {
+                high = mid - 1;
+            } else if (row > range[1]) {
+                low = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void onBatchComplete(UploadBatch batch, BatchResult result) {
+    }
+
+    // Groups with a batch whose request failed as a whole are not acknowledged, so a restart uploads them again. Once
+    // the journal failed to write, nothing more is queued; the failure is thrown by close().
+    @Override
+    public void onGroupComplete(BatchGroup group) {
+        if (group.isFailed() || group.size() == 0 || failure != null) {
+            return;
+        }
+        CRC32 crc = new CRC32();
+        group.getBatches().forEach(batch -> batch.getColumns().updateChecksum(crc));
+        pending.add(group.getFirstRow() + "," + group.getLastRow() + "," + group.getLastRowOffset() + ","
+                + group.size() + "," + Long.toHexString(crc.getValue()) + "\n");
+    }
+
+    private void writeLoop() {
+        List<String> group = new ArrayList<>();
+        try {
+            while (true) {
+                group.add(pending.take());
+                pending.drainTo(group);
+                boolean done = group.remove(END_OF_JOURNAL);
+                StringBuilder lines = new StringBuilder();
+                group.forEach(lines::append);
+                ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                // One fsync per group: under load many acknowledgements share a single disk flush.
+                channel.force(false);
+                group.clear();
+                if (done) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to write journal, acknowledgements are no longer recorded: " + e);
+            failure = e;
+            pending.clear();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Throws the error that stopped the writer, if any, so a run whose acknowledgements were not all recorded does not
+    // end as if they were.
+    @Override
+    public void close() throws IOException {
+        pending.add(END_OF_JOURNAL);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (failure != null) {
+            throw new IOException("Journal write failed", failure);
+        }
+    }
+
+    public static class ResumePoint {
+        private final long row;
+        private final long offset;
+
+        ResumePoint(long row, long offset) {
+            this.row = row;
+            this.offset = offset;
+        }
+
+        // Last row of the contiguous acknowledged prefix, 0 if nothing was acknowledged.
+        public long getRow() {
+            return row;
+        }
+
+        // Character offset of that row in the input file.
+        public long getOffset() {
+            return offset;
+        }
+    }
+}
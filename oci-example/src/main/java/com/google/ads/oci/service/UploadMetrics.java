@@ -0,0 +1,146 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters and latency histograms for each stage of the pipeline, kept for the lifetime of the service. Stages timed
+// by the producer record one sample per batch group, covering all of its rows: build is appending rows to the
+// columnar batches and serialize is sizing them. Serialize also records one sample per request for building its
+// ClickConversions at assembly time. Map records one sample per row for the sequential reader, and one per chunk,
+// covering its parsing as well, for the parallel and mapped readers. Throttle and rpc record one sample per request. Read is the
+// time spent waiting for the next record, so with a lazy stream it includes whatever parsing, filtering and mapping
+// the stream does upstream.
+public class UploadMetrics implements BatchListener {
+    public enum Stage {
+        READ, MAP, BUILD, SERIALIZE, THROTTLE, RPC;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    // Exported histogram buckets are the powers of two from about a microsecond to about a minute, in steps of four.
+    private static final int MIN_BUCKET_EXPONENT = 10;
+    private static final int MAX_BUCKET_EXPONENT = 36;
+
+    private final Map<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+    private final LongAdder quotaErrors = new LongAdder();
+    private final LongAdder conversions = new LongAdder();
+    private final LongAdder uploaded = new LongAdder();
+    private final LongAdder partialFailures = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+
+    public UploadMetrics() {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new LatencyHistogram());
+        }
+    }
+
+    public LatencyHistogram getStage(Stage stage) {
+        return stages.get(stage);
+    }
+
+    public void record(Stage stage, long nanos, long items) {
+        stages.get(stage).record(nanos, items);
+    }
+
+    @Override
+    public void onBatchComplete(UploadBatch batch, BatchResult result) {
+        requests.increment();
+        record(Stage.RPC, result.getLatencyNanos(), batch.size());
+        if (result.isFailed()) {
+            failedRequests.increment();
+        }
+        if (result.isResourceExhausted()) {
+            quotaErrors.increment();
+        }
+        if (batch.getAttempt() == 0) {
+            conversions.add(batch.size());
+        }
+        uploaded.add(result.getSucceeded());
+        partialFailures.add(result.getRowErrors().size());
+        retried.add(result.getRetriedRows().size());
+        deadLettered.add(result.getDeadLetteredRows().size());
+    }
+
+    // Prometheus text exposition format, version 0.0.4.
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        out.append("# HELP oci_stage_seconds Time spent in each stage of the upload pipeline.\n")
+                .append("# TYPE oci_stage_seconds histogram\n");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = stages.get(stage);
+            for (int exponent = MIN_BUCKET_EXPONENT; exponent <= MAX_BUCKET_EXPONENT; exponent += 2) {
+                out.append("oci_stage_seconds_bucket{stage=\"").append(stage.label()).append("\",le=\"")
+                        .append(seconds(1L << exponent)).append("\"} ")
+                        .append(histogram.getCountBelowPowerOfTwo(exponent)).append('\n');
+            }
+            out.append("oci_stage_seconds_bucket{stage=\"").append(stage.label()).append("\",le=\"+Inf\"} ")
+                    .append(histogram.getCount()).append('\n');
+            out.append("oci_stage_seconds_sum{stage=\"").append(stage.label()).append("\"} ")
+                    .append(seconds(histogram.getTotalNanos())).append('\n');
+            out.append("oci_stage_seconds_count{stage=\"").append(stage.label()).append("\"} ")
+                    .append(histogram.getCount()).append('\n');
+        }
+        out.append("# HELP oci_stage_items_total Rows or conversions processed by each stage.\n")
+                .append("# TYPE oci_stage_items_total counter\n");
+        for (Stage stage : Stage.values()) {
+            out.append("oci_stage_items_total{stage=\"").append(stage.label()).append("\"} ")
+                    .append(stages.get(stage).getItems()).append('\n');
+        }
+        counter(out, "oci_requests_total", "Upload requests sent, including retries.", requests);
+        counter(out, "oci_failed_requests_total", "Upload requests that failed as a whole.", failedRequests);
+        counter(out, "oci_quota_errors_total", "Upload requests rejected with RESOURCE_EXHAUSTED.", quotaErrors);
+        counter(out, "oci_conversions_total", "Conversions submitted for upload, not counting retries.", conversions);
+        counter(out, "oci_uploaded_conversions_total", "Conversions the API accepted.", uploaded);
+        counter(out, "oci_partial_failures_total", "Conversions rejected in partial failure responses.", partialFailures);
+        counter(out, "oci_retried_conversions_total", "Conversions sent again after a transient failure.", retried);
+        counter(out, "oci_dead_lettered_conversions_total", "Conversions given up on.", deadLettered);
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, LongAdder value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" counter\n")
+                .append(name).append(' ').append(value.sum()).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    // End-of-run summary, one line per stage followed by the request counters.
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("Pipeline stages:\n");
+        for (Stage stage : Stage.values()) {
+            out.append(String.format("  %-9s %s%n", stage.label(), stages.get(stage)));
+        }
+        out.append(String.format("  %d requests (%d failed, %d quota errors), %d of %d conversions uploaded, "
+                        + "%d partial failures, %d retried, %d dead-lettered.",
+                requests.sum(), failedRequests.sum(), quotaErrors.sum(), uploaded.sum(), conversions.sum(),
+                partialFailures.sum(), retried.sum(), deadLettered.sum()));
+        return out.toString();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.common.base.Preconditions;
+
+public class UploadOptions {
+    private int workers = 4;
+    private int queueCapacity = 8;
+    private int channels = 1;
+    private int batchSize = 50;
+    private int maxBatchSize = AdaptiveBatchSizer.API_MAX_BATCH_SIZE;
+    private long targetLatencyMillis = 5_000;
+    private long maxRequestBytes = 3 * 1024 * 1024;
+    private String endpoint;
+    private boolean plaintext;
+    private double requestsPerSecond;
+    private double conversionsPerSecond;
+    private int maxAttempts = 4;
+    private ResultReporter.Level reportLevel = ResultReporter.Level.BATCH;
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    // Number of UploadClickConversionsRequests in flight at the same time for each customer account.
+    public UploadOptions setWorkers(int workers) {
+        Preconditions.checkArgument(workers > 0, "workers must be positive");
+        this.workers = workers;
+        return this;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    // Number of built batches waiting for a free worker before the parser is blocked.
+    public UploadOptions setQueueCapacity(int queueCapacity) {
+        Preconditions.checkArgument(queueCapacity > 0, "queueCapacity must be positive");
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    // Number of long-lived gRPC channels the workers share. One channel multiplexes many concurrent requests, more
+    // only help when a single connection becomes the bottleneck.
+    public UploadOptions setChannels(int channels) {
+        Preconditions.checkArgument(channels > 0, "channels must be positive");
+        this.channels = channels;
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    // Number of conversions in the first request; later requests are sized by AdaptiveBatchSizer.
+    public UploadOptions setBatchSize(int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be positive");
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    // Upper bound for the adaptive batch size. Setting it to the initial batch size disables growth.
+    public UploadOptions setMaxBatchSize(int maxBatchSize) {
+        Preconditions.checkArgument(maxBatchSize > 0 && maxBatchSize <= AdaptiveBatchSizer.API_MAX_BATCH_SIZE,
+                "maxBatchSize must be between 1 and %s", AdaptiveBatchSizer.API_MAX_BATCH_SIZE);
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    public long getTargetLatencyMillis() {
+        return targetLatencyMillis;
+    }
+
+    // Requests slower than this shrink the batch size, requests faster than half of it let it grow.
+    public UploadOptions setTargetLatencyMillis(long targetLatencyMillis) {
+        Preconditions.checkArgument(targetLatencyMillis > 0, "targetLatencyMillis must be positive");
+        this.targetLatencyMillis = targetLatencyMillis;
+        return this;
+    }
+
+    public long getMaxRequestBytes() {
+        return maxRequestBytes;
+    }
+
+    // Serialized size limit of a single request, kept below the 4 MiB default gRPC message limit.
+    public UploadOptions setMaxRequestBytes(long maxRequestBytes) {
+        Preconditions.checkArgument(maxRequestBytes > 0, "maxRequestBytes must be positive");
+        this.maxRequestBytes = maxRequestBytes;
+        return this;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    // host:port of the upload service, e.g. a local fake server, instead of the Google Ads API.
+    public UploadOptions setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+        return this;
+    }
+
+    public boolean isPlaintext() {
+        return plaintext;
+    }
+
+    // Connects to the endpoint without TLS and with a static token instead of the OAuth credentials.
+    public UploadOptions setPlaintext(boolean plaintext) {
+        this.plaintext = plaintext;
+        return this;
+    }
+
+    public double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    // Upper bound for the request rate to each customer account; 0 leaves it unlimited. Quota errors lower the rate
+    // temporarily, see UploadRateLimiter.
+    public UploadOptions setRequestsPerSecond(double requestsPerSecond) {
+        Preconditions.checkArgument(requestsPerSecond >= 0, "requestsPerSecond must not be negative");
+        this.requestsPerSecond = requestsPerSecond;
+        return this;
+    }
+
+    public double getConversionsPerSecond() {
+        return conversionsPerSecond;
+    }
+
+    // Upper bound for the conversions uploaded per second to each customer account; 0 leaves it unlimited.
+    public UploadOptions setConversionsPerSecond(double conversionsPerSecond) {
+        Preconditions.checkArgument(conversionsPerSecond >= 0, "conversionsPerSecond must not be negative");
+        this.conversionsPerSecond = conversionsPerSecond;
+        return this;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    // Number of times a conversion is sent before a transient failure is given up on; 1 disables retries.
+    public UploadOptions setMaxAttempts(int maxAttempts) {
+        Preconditions.checkArgument(maxAttempts > 0, "maxAttempts must be positive");
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public ResultReporter.Level getReportLevel() {
+        return reportLevel;
+    }
+
+    // How much of the upload results is printed while uploading: the summary only, a line per batch or a line per
+    // conversion.
+    public UploadOptions setReportLevel(ResultReporter.Level reportLevel) {
+        this.reportLevel = Preconditions.checkNotNull(reportLevel);
+        return this;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Token buckets for requests and conversions in front of one account's uploads. A RESOURCE_EXHAUSTED response pauses
+// the account for the retry delay the API asks for, or an exponential backoff when it gives none, and halves the
+// configured rates; every successful batch then adds a little back until the configured rates are reached again, so
+// a run settles just below the account's quota. Notified as a BatchListener of the account's shards only, of which
+// there is one per upload running at the same time.
+public class UploadRateLimiter implements BatchListener {
+    private static final double MIN_SCALE = 1.0 / 64;
+    private static final double RECOVERY_STEP = 0.05;
+    private static final long BASE_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final long THROUGHPUT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final long customerId;
+    private final double requestsPerSecond;
+    private final double conversionsPerSecond;
+    private final RateLimiter requestLimiter;
+    private final RateLimiter conversionLimiter;
+
+    private final LongAdder throttledNanos = new LongAdder();
+    private final LongAdder quotaErrors = new LongAdder();
+    private volatile long pausedUntilNanos = System.nanoTime();
+    private double scale = 1;
+    private int consecutiveQuotaErrors;
+
+    private long windowStartNanos = System.nanoTime();
+    private long windowRequests;
+    private long windowConversions;
+    private double currentRequestsPerSecond;
+    private double currentConversionsPerSecond;
+
+    UploadRateLimiter(long customerId, UploadOptions options) {
+        this.customerId = customerId;
+        this.requestsPerSecond = options.getRequestsPerSecond();
+        this.conversionsPerSecond = options.getConversionsPerSecond();
+        this.requestLimiter = requestsPerSecond > 0 ? RateLimiter.create(requestsPerSecond) : null;
+        this.conversionLimiter = conversionsPerSecond > 0 ? RateLimiter.create(conversionsPerSecond) : null;
+    }
+
+    // Blocks the calling worker until the batch may be sent, and returns how long it waited.
+    long acquire(UploadBatch batch) {
+        long start = System.nanoTime();
+        long pauseNanos = pausedUntilNanos - start;
+        if (pauseNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(pauseNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while throttling batch " + batch.getSequence(), e);
+            }
+        }
+        if (requestLimiter != null) {
+            requestLimiter.acquire();
+        }
+        if (conversionLimiter != null && batch.size() > 0) {
+            conversionLimiter.acquire(batch.size());
+        }
+        long waitedNanos = System.nanoTime() - start;
+        throttledNanos.add(waitedNanos);
+        return waitedNanos;
+    }
+
+    @Override
+    public synchronized void onBatchComplete(UploadBatch batch, BatchResult result) {
+        long now = System.nanoTime();
+        if (result.isResourceExhausted()) {
+            quotaErrors.increment();
+            consecutiveQuotaErrors++;
+            long backoffNanos = result.getRetryDelayNanos() > 0
+                    ? result.getRetryDelayNanos()
+                    : Math.min(MAX_BACKOFF_NANOS, BASE_BACKOFF_NANOS << Math.min(consecutiveQuotaErrors - 1, 16));
+            if (now + backoffNanos - pausedUntilNanos > 0) {
+                pausedUntilNanos = now + backoffNanos;
+            }
+            setScale(Math.max(MIN_SCALE, scale / 2));
+        } else if (!result.isFailed()) {
+            consecutiveQuotaErrors = 0;
+            if (scale < 1) {
+                setScale(Math.min(1, scale + RECOVERY_STEP));
+            }
+        }
+
+        windowRequests++;
+        windowConversions += result.getSucceeded();
+        long elapsed = now - windowStartNanos;
+        if (elapsed >= THROUGHPUT_WINDOW_NANOS) {
+            currentRequestsPerSecond = windowRequests * 1e9 / elapsed;
+            currentConversionsPerSecond = windowConversions * 1e9 / elapsed;
+            windowStartNanos = now;
+            windowRequests = 0;
+            windowConversions = 0;
+        }
+    }
+
+    private void setScale(double scale) {
+        this.scale = scale;
+        if (requestLimiter != null) {
+            requestLimiter.setRate(requestsPerSecond * scale);
+        }
+        if (conversionLimiter != null) {
+            conversionLimiter.setRate(conversionsPerSecond * scale);
+        }
+    }
+
+    public long getCustomerId() {
+        return customerId;
+    }
+
+    // Requests completed per second over the last throughput window, or so far when the first window is still open.
+    public synchronized double getRequestsPerSecond() {
+        return windowRequests > 0 && currentRequestsPerSecond == 0
+                ? windowRequests * 1e9 / Math.max(1, System.nanoTime() - windowStartNanos) : currentRequestsPerSecond;
+    }
+
+    // Conversions uploaded per second, measured the same way as getRequestsPerSecond().
+    public synchronized double getConversionsPerSecond() {
+        return windowConversions > 0 && currentConversionsPerSecond == 0
+                ? windowConversions * 1e9 / Math.max(1, System.nanoTime() - windowStartNanos) : currentConversionsPerSecond;
+    }
+
+    // Total time the workers of this account spent waiting for tokens or for a quota pause to end.
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.sum());
+    }
+
+    public long getQuotaErrors() {
+        return quotaErrors.sum();
+    }
+
+    // Fraction of the configured rates currently allowed, below 1 while recovering from quota errors.
+    public synchronized double getScale() {
+        return scale;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Customer %d: %.1f requests/s, %.1f conversions/s, throttled %d ms, %d quota errors, "
+                        + "rate at %.0f%% of limit.",
+                customerId, getRequestsPerSecond(), getConversionsPerSecond(), getThrottledMillis(), getQuotaErrors(),
+                getScale() * 100);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class UploadSummary implements BatchListener {
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder abandonedBatches = new LongAdder();
+    private final LongAdder conversions = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> unrouted = new ConcurrentHashMap<>();
+    private final List<UploadRateLimiter> rateLimiters = new ArrayList<>();
+    private volatile long retried;
+
+    @Override
+    public void onBatchComplete(UploadBatch batch, BatchResult result) {
+        batches.increment();
+        if (result.isFailed()) {
+            failedBatches.increment();
+        }
+        if (result.isAbandoned()) {
+            abandonedBatches.increment();
+        }
+        // Retries send conversions that were already counted, only their successes are new.
+        if (batch.getAttempt() == 0) {
+            conversions.add(result.getSize());
+        }
+        succeeded.add(result.getSucceeded());
+        deadLettered.add(result.getDeadLetteredRows().size());
+        latencyNanos.add(result.getLatencyNanos());
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getFailedBatches() {
+        return failedBatches.sum();
+    }
+
+    // Failed batches that were not retried, so their conversions were not uploaded; see BatchResult.isAbandoned.
+    public long getAbandonedBatches() {
+        return abandonedBatches.sum();
+    }
+
+    public long getConversions() {
+        return conversions.sum();
+    }
+
+    public long getSucceeded() {
+        return succeeded.sum();
+    }
+
+    public long getFailed() {
+        return getConversions() - getSucceeded();
+    }
+
+    public long getDeadLettered() {
+        return deadLettered.sum();
+    }
+
+    void addUnrouted(String eventName) {
+        unrouted.computeIfAbsent(String.valueOf(eventName), name -> new LongAdder()).increment();
+    }
+
+    // Rows skipped because their event has no conversion action, by event name.
+    public Map<String, Long> getUnrouted() {
+        Map<String, Long> counts = new TreeMap<>();
+        unrouted.forEach((eventName, count) -> counts.put(eventName, count.sum()));
+        return counts;
+    }
+
+    // Conversions sent again after a transient failure, counting every retry.
+    public long getRetried() {
+        return retried;
+    }
+
+    void setRetried(long retried) {
+        this.retried = retried;
+    }
+
+    void addRateLimiters(List<UploadRateLimiter> rateLimiters) {
+        this.rateLimiters.addAll(rateLimiters);
+    }
+
+    // One rate limiter per customer account uploaded to, with its throughput and throttling figures.
+    public List<UploadRateLimiter> getRateLimiters() {
+        return Collections.unmodifiableList(rateLimiters);
+    }
+
+    @Override
+    public String toString() {
+        long batchCount = getBatches();
+        long avgLatencyMillis = batchCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(latencyNanos.sum() / batchCount);
+        String summary = String.format("Uploaded %d of %d conversions in %d batches (%d failed batches, "
+                        + "%d abandoned, %d failed conversions, %d retried, %d dead-lettered, avg latency %d ms).",
+                getSucceeded(), getConversions(), batchCount, getFailedBatches(), getAbandonedBatches(), getFailed(),
+                getRetried(), getDeadLettered(), avgLatencyMillis);
+        Map<String, Long> unroutedCounts = getUnrouted();
+        return unroutedCounts.isEmpty() ? summary : summary + " Rows without a conversion action, by event: "
+                + unroutedCounts + ".";
+    }
+}
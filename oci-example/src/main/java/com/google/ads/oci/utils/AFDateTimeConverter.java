@@ -0,0 +1,139 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.utils;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+
+// Converts AppsFlyer event times ("yyyy/M/d H:m", local to the source time zone) to the Google Ads conversion date time
+// format ("yyyy-MM-dd HH:mm:ss+HH:mm"). Event times repeat heavily at minute granularity, so converted strings are kept
+// in a small direct-mapped cache keyed by the packed minute; a hit parses the digits in place and returns the cached
+// String without allocating. Safe for concurrent use: entries are immutable and a lost cache write only costs a miss.
+public class AFDateTimeConverter {
+    private static final int CACHE_SIZE = 1024;
+    private static final char END = 0;
+    private static final char[] SEPARATORS = {'/', '/', ' ', ':', END};
+    private static final int[] MAX_DIGITS = {4, 2, 2, 2, 2};
+
+    private final ZoneId sourceZone;
+    private final Entry[] cache = new Entry[CACHE_SIZE];
+
+    public AFDateTimeConverter(ZoneId sourceZone) {
+        this.sourceZone = sourceZone;
+    }
+
+    public static AFDateTimeConverter utc() {
+        return new AFDateTimeConverter(ZoneOffset.UTC);
+    }
+
+    public String convert(CharSequence afDateTime) {
+        long minuteKey = parseMinuteKey(afDateTime);
+        int index = (int) ((minuteKey ^ (minuteKey >>> 17)) & (CACHE_SIZE - 1));
+        Entry entry = cache[index];
+        if (entry == null || entry.minuteKey != minuteKey) {
+            entry = new Entry(minuteKey, format(afDateTime, minuteKey));
+            cache[index] = entry;
+        }
+        return entry.value;
+    }
+
+    // Turns a converted date time back into the AppsFlyer form, in the same local time it was converted from.
+    public static String toAFDateTime(String conversionDateTime) {
+        return Integer.parseInt(conversionDateTime.substring(0, 4)) + "/"
+                + Integer.parseInt(conversionDateTime.substring(5, 7)) + "/"
+                + Integer.parseInt(conversionDateTime.substring(8, 10)) + " "
+                + Integer.parseInt(conversionDateTime.substring(11, 13)) + ":"
+                + conversionDateTime.substring(14, 16);
+    }
+
+    // Packs year, month, day, hour and minute as the decimal number yyyyMMddHHmm.
+    private static long parseMinuteKey(CharSequence text) {
+        long key = 0;
+        int length = text.length();
+        int i = 0;
+        for (int field = 0; field < SEPARATORS.length; field++) {
+            int start = i;
+            int value = 0;
+            for (; i < length && i - start < MAX_DIGITS[field]; i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+            }
+            char separator = SEPARATORS[field];
+            boolean terminated = separator == END ? i == length : i < length && text.charAt(i) == separator;
+            if (i == start || !terminated) {
+                throw new DateTimeParseException("Text '" + text + "' is not in yyyy/M/d H:m format", text, i);
+            }
+            i++;
+            key = key * 100 + value;
+        }
+        return key;
+    }
+
+    private String format(CharSequence text, long minuteKey) {
+        int minute = (int) (minuteKey % 100);
+        int hour = (int) (minuteKey / 100 % 100);
+        int day = (int) (minuteKey / 10_000 % 100);
+        int month = (int) (minuteKey / 1_000_000 % 100);
+        int year = (int) (minuteKey / 100_000_000);
+        LocalDateTime dateTime;
+        try {
+            dateTime = LocalDateTime.of(year, month, day, hour, minute);
+        } catch (RuntimeException e) {
+            throw new DateTimeParseException("Text '" + text + "' is not a valid date time", text, 0, e);
+        }
+        int offsetMinutes = sourceZone.getRules().getOffset(dateTime).getTotalSeconds() / 60;
+
+        char[] out = new char[25];
+        writeDigits(out, 0, year, 4);
+        out[4] = '-';
+        writeDigits(out, 5, month, 2);
+        out[7] = '-';
+        writeDigits(out, 8, day, 2);
+        out[10] = ' ';
+        writeDigits(out, 11, hour, 2);
+        out[13] = ':';
+        writeDigits(out, 14, minute, 2);
+        out[16] = ':';
+        writeDigits(out, 17, 0, 2);
+        out[19] = offsetMinutes < 0 ? '-' : '+';
+        writeDigits(out, 20, Math.abs(offsetMinutes) / 60, 2);
+        out[22] = ':';
+        writeDigits(out, 23, Math.abs(offsetMinutes) % 60, 2);
+        return new String(out);
+    }
+
+    private static void writeDigits(char[] out, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static final class Entry {
+        private final long minuteKey;
+        private final String value;
+
+        private Entry(long minuteKey, String value) {
+            this.minuteKey = minuteKey;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.utils;
+
+import com.google.common.base.Preconditions;
+import org.apache.commons.csv.CSVRecord;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+
+// Decides whether an AppsFlyer row can become a conversion before any of it is mapped. Checks run from cheapest to
+// most expensive and stop at the first rejection: the event name allow-list, then the presence of a click ID, then
+// the click age. Fields are read as CharSequence, so readers can pass views over raw bytes. Safe for concurrent use.
+public class AFRowFilter {
+    private static final String TOUCH_TIME_COLUMN = "Attributed Touch Time";
+
+    private String[] eventNames = {"install"};
+    private boolean requireClickId = true;
+    private Duration maxClickAge;
+    private ZoneId clickZone;
+    private volatile long clickCutoffKey = Long.MIN_VALUE;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejectedEventName = new LongAdder();
+    private final LongAdder rejectedClickId = new LongAdder();
+    private final LongAdder rejectedClickAge = new LongAdder();
+
+    public AFRowFilter setEventNames(Collection<String> eventNames) {
+        Preconditions.checkArgument(!eventNames.isEmpty(), "eventNames must not be empty");
+        this.eventNames = eventNames.toArray(new String[0]);
+        return this;
+    }
+
+    public AFRowFilter setRequireClickId(boolean requireClickId) {
+        this.requireClickId = requireClickId;
+        return this;
+    }
+
+    // Rows clicked more than maxClickAge ago, in the time zone of the export, are rejected. The click time is the
+    // Attributed Touch Time when the export has it, otherwise the Event Time. The cutoff is taken from the clock here
+    // and on every refreshClickCutoff, so callers that run for long refresh it for each input they read.
+    public AFRowFilter setMaxClickAge(Duration maxClickAge, ZoneId zone) {
+        Preconditions.checkArgument(!maxClickAge.isNegative(), "maxClickAge must not be negative");
+        this.maxClickAge = maxClickAge;
+        this.clickZone = Preconditions.checkNotNull(zone, "zone");
+        refreshClickCutoff();
+        return this;
+    }
+
+    // Moves the click cutoff to maxClickAge before now. Does nothing without a maximum click age.
+    public void refreshClickCutoff() {
+        if (maxClickAge != null) {
+            LocalDateTime cutoff = LocalDateTime.now(clickZone).minus(maxClickAge);
+            clickCutoffKey = cutoff.getYear() * 100_000_000L + cutoff.getMonthValue() * 1_000_000L
+                    + cutoff.getDayOfMonth() * 10_000L + cutoff.getHour() * 100L + cutoff.getMinute();
+        }
+    }
+
+    public boolean test(CSVRecord record) {
+        return test(record.get("Event Name"), record.get("Sub Param 1"), record.get("Sub Param 3"),
+                record.get("Event Time"), record.isMapped(TOUCH_TIME_COLUMN) ? record.get(TOUCH_TIME_COLUMN) : "");
+    }
+
+    public boolean test(CharSequence eventName, CharSequence gclid, CharSequence wbraid, CharSequence eventTime,
+                        CharSequence touchTime) {
+        if (!isAllowedEvent(eventName)) {
+            rejectedEventName.increment();
+            return false;
+        }
+        if (requireClickId && gclid.length() == 0 && wbraid.length() == 0) {
+            rejectedClickId.increment();
+            return false;
+        }
+        long cutoffKey = clickCutoffKey;
+        if (cutoffKey != Long.MIN_VALUE) {
+            long clickKey = touchTime.length() > 0 ? minuteKey(touchTime) : -1;
+            if (clickKey < 0) {
+                clickKey = minuteKey(eventTime);
+            }
+            // Rows whose times cannot be read are left for the mapping stage to report.
+            if (clickKey >= 0 && clickKey < cutoffKey) {
+                rejectedClickAge.increment();
+                return false;
+            }
+        }
+        accepted.increment();
+        return true;
+    }
+
+    private boolean isAllowedEvent(CharSequence eventName) {
+        return allowedEventName(eventName) != null;
+    }
+
+    // Returns the allow-list's own String for the event name, so readers do not need to decode it, or null.
+    public String allowedEventName(CharSequence eventName) {
+        for (String allowed : eventNames) {
+            if (contentEquals(allowed, eventName)) {
+                return allowed;
+            }
+        }
+        return null;
+    }
+
+    private static boolean contentEquals(String expected, CharSequence actual) {
+        int length = expected.length();
+        if (actual.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (expected.charAt(i) != actual.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Packs the first five digit groups (year, month, day, hour, minute) as yyyyMMddHHmm, whatever the separators,
+    // so both "2023/5/1 7:05" and "2023-05-01 07:05:00" are understood. Returns -1 when there is no full date.
+    private static long minuteKey(CharSequence text) {
+        long key = 0;
+        int groups = 0;
+        long current = -1;
+        int length = text.length();
+        for (int i = 0; i <= length && groups < 5; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            if (c >= '0' && c <= '9') {
+                current = Math.max(current, 0) * 10 + (c - '0');
+            } else if (current >= 0) {
+                key = key * 100 + current;
+                groups++;
+                current = -1;
+            }
+        }
+        if (groups < 3) {
+            return -1;
+        }
+        for (; groups < 5; groups++) {
+            key *= 100;
+        }
+        return key;
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getRejected() {
+        return rejectedEventName.sum() + rejectedClickId.sum() + rejectedClickAge.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Filtered %d rows: %d by event name %s, %d without click ID, %d by click age.",
+                getRejected(), rejectedEventName.sum(), Arrays.toString(eventNames), rejectedClickId.sum(),
+                rejectedClickAge.sum());
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Splits a CSV file into byte ranges that start and end on record boundaries. A single forward pass tracks the quote
+// state, so newlines inside quoted fields never end a chunk, and counts records, lines and UTF-16 characters, so each
+// chunk knows the row number, line and character offset it starts at. Records must end with LF or CRLF; a bare CR
+// outside quotes is rejected, as it would end a record for CSVParser but not for the scanner, and the row numbers
+// would drift.
+class CSVChunkScanner implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long bytePosition;
+    private long charPosition;
+    private long line = 1;
+    private long nextRow = 1;
+    private boolean inQuotes;
+    private boolean afterCR;
+    private boolean lineHasContent;
+    private boolean endOfFile;
+
+    // Positions the scanner after the header record.
+    CSVChunkScanner(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        buffer.flip();
+        scan(1);
+        nextRow = 1;
+    }
+
+    boolean hasNext() throws IOException {
+        return !endOfFile || buffer.hasRemaining();
+    }
+
+    // Returns the next chunk of at least targetBytes, extended to the end of the record that crosses that size.
+    Chunk next(long targetBytes) throws IOException {
+        long startByte = bytePosition;
+        long startChar = charPosition;
+        long startLine = line;
+        long firstRow = nextRow;
+        scan(targetBytes);
+        return new Chunk(startByte, bytePosition, startChar, startLine, firstRow, nextRow - firstRow);
+    }
+
+    private void scan(long targetBytes) throws IOException {
+        long target = bytePosition + targetBytes;
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                endOfFile = channel.read(buffer) < 0;
+                buffer.flip();
+                if (endOfFile) {
+                    // A last record without a trailing newline still counts.
+                    if (lineHasContent) {
+                        nextRow++;
+                        lineHasContent = false;
+                    }
+                    return;
+                }
+            }
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                bytePosition++;
+                // UTF-8 continuation bytes add no character, 4-byte sequences decode to a surrogate pair.
+                if ((b & 0xC0) != 0x80) {
+                    charPosition += (b & 0xF8) == 0xF0 ? 2 : 1;
+                }
+                if (afterCR && b != '\n') {
+                    throw new IOException("Unsupported line break: bare CR before byte " + (bytePosition - 1));
+                }
+                afterCR = b == '\r' && !inQuotes;
+                if (b == '"') {
+                    // An escaped quote ("") toggles twice, leaving the state unchanged.
+                    inQuotes = !inQuotes;
+                } else if (b == '\n') {
+                    line++;
+                    if (!inQuotes) {
+                        // Empty lines are skipped by the parser without being numbered. A chunk never ends after
+                        // one, as the parser reports the offset of the next record from the start of the empty lines.
+                        if (lineHasContent) {
+                            nextRow++;
+                            lineHasContent = false;
+                            if (bytePosition >= target) {
+                                return;
+                            }
+                        }
+                        continue;
+                    }
+                }
+                if (b != '\r') {
+                    lineHasContent = true;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    static class Chunk {
+        final long startByte;
+        final long endByte;
+        final long startChar;
+        final long startLine;
+        final long firstRow;
+        final long rows;
+
+        Chunk(long startByte, long endByte, long startChar, long startLine, long firstRow, long rows) {
+            this.startByte = startByte;
+            this.endByte = endByte;
+            this.startChar = startChar;
+            this.startLine = startLine;
+            this.firstRow = firstRow;
+            this.rows = rows;
+        }
+
+        long lastRow() {
+            return firstRow + rows - 1;
+        }
+    }
+}
@@ -15,22 +15,34 @@
  */
 package com.google.ads.oci.utils;
 
+import com.github.luben.zstd.ZstdInputStream;
 import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 
-import java.io.FileReader;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 public class CSVUtil {
     private static final CSVFormat CSV_FORMAT = CSVFormat.DEFAULT.builder()
             .setHeader()
             .setSkipHeaderRecord(true)
             .build();
+    private static final int DECOMPRESSION_BUFFER_SIZE = 64 * 1024;
+
     public static List<CSVRecord> readAppsFlyerCSV(String fileName) {
-        try (Reader in = new FileReader(fileName)) {
+        try (Reader in = openReader(fileName)) {
             return CSV_FORMAT.parse(in).stream().collect(Collectors.toList());
         } catch (Exception e) {
             e.printStackTrace();
@@ -38,4 +50,146 @@ public class CSVUtil {
 
         return Collections.emptyList();
     }
+
+    // Lazily parses the CSV file, so only the records currently flowing through the pipeline are held in memory.
+    // The returned stream owns the underlying file and must be closed by the caller.
+    public static Stream<CSVRecord> streamAppsFlyerCSV(String fileName) {
+        try {
+            CSVParser parser = CSV_FORMAT.parse(openReader(fileName));
+            return parser.stream().onClose(() -> closeQuietly(parser));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return Stream.empty();
+    }
+
+    // Resumes parsing at the record starting at the given character offset, which is numbered as the given row. The
+    // characters before it are skipped without being parsed; only the header is read from the start of the file.
+    public static Stream<CSVRecord> streamAppsFlyerCSV(String fileName, long offset, long row) {
+        if (offset == 0) {
+            return streamAppsFlyerCSV(fileName);
+        }
+        try {
+            List<String> headerNames = readHeader(fileName);
+            Reader in = openReader(fileName);
+            skip(in, offset, fileName);
+            CSVParser parser = new CSVParser(in, dataFormat(headerNames), offset, row);
+            return parser.stream().onClose(() -> closeQuietly(parser));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return Stream.empty();
+    }
+
+    // Like streamAppsFlyerCSV(fileName, offset, row), but maps the records the filter accepts together with the line
+    // each starts on, which the records themselves do not know.
+    public static <T> Stream<T> streamAppsFlyerCSV(String fileName, long offset, long row, Predicate<CSVRecord> filter,
+                                                   LineMapper<T> mapper) {
+        try {
+            CSVParser parser;
+            long firstLine;
+            if (offset == 0) {
+                parser = CSV_FORMAT.parse(openReader(fileName));
+                firstLine = 1;
+            } else {
+                List<String> headerNames = readHeader(fileName);
+                Reader in = openReader(fileName);
+                firstLine = 1 + skip(in, offset, fileName);
+                parser = new CSVParser(in, dataFormat(headerNames), offset, row);
+            }
+            // The stream is sequential, so each record is mapped before the parser reads the next one.
+            return parser.stream()
+                    .filter(filter)
+                    .map(record -> mapper.map(record, sourceLine(parser, record, firstLine)))
+                    .onClose(() -> closeQuietly(parser));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return Stream.empty();
+    }
+
+    // Skips the given number of characters and returns the number of line breaks among them.
+    private static long skip(Reader in, long offset, String fileName) throws IOException {
+        char[] buffer = new char[8192];
+        long lineBreaks = 0;
+        for (long skipped = 0; skipped < offset; ) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, offset - skipped));
+            if (n < 0) {
+                throw new IOException("Resume offset " + offset + " is beyond the end of " + fileName);
+            }
+            for (int i = 0; i < n; i++) {
+                if (buffer[i] == '\n') {
+                    lineBreaks++;
+                }
+            }
+            skipped += n;
+        }
+        return lineBreaks;
+    }
+
+    // The line the record starts on, given the line the parser's input starts on. The parser has just read the
+    // record's last line, and the line breaks inside its quoted values lie between the two, so this only holds until
+    // the parser reads the next record.
+    static long sourceLine(CSVParser parser, CSVRecord record, long firstLine) {
+        long line = firstLine - 1 + parser.getCurrentLineNumber();
+        for (String value : record) {
+            for (int i = value.indexOf('\n'); i >= 0; i = value.indexOf('\n', i + 1)) {
+                line--;
+            }
+        }
+        return line;
+    }
+
+    // AppsFlyer exports are UTF-8; character offsets recorded in the journal are counted in that encoding.
+    static Reader openReader(String fileName) throws IOException {
+        return new InputStreamReader(openInput(fileName), StandardCharsets.UTF_8);
+    }
+
+    // Gzip and zstd files are decompressed on a dedicated thread, overlapping with parsing on the caller's thread.
+    static InputStream openInput(String fileName) throws IOException {
+        if (fileName.endsWith(".gz")) {
+            return new PipelinedInputStream(
+                    new GZIPInputStream(new FileInputStream(fileName), DECOMPRESSION_BUFFER_SIZE), "oci-gunzip");
+        }
+        if (fileName.endsWith(".zst")) {
+            return new PipelinedInputStream(new ZstdInputStream(
+                    new BufferedInputStream(new FileInputStream(fileName), DECOMPRESSION_BUFFER_SIZE)), "oci-unzstd");
+        }
+        return new FileInputStream(fileName);
+    }
+
+    // Compressed files can only be read from the start, not split into chunks or mapped.
+    public static boolean isCompressed(String fileName) {
+        return fileName.endsWith(".gz") || fileName.endsWith(".zst");
+    }
+
+    static List<String> readHeader(String fileName) throws IOException {
+        try (CSVParser headerParser = CSV_FORMAT.parse(openReader(fileName))) {
+            return headerParser.getHeaderNames();
+        }
+    }
+
+    // Format for parsing from the middle of the file, where the header is known but not part of the input.
+    static CSVFormat dataFormat(List<String> headerNames) {
+        return CSV_FORMAT.builder()
+                .setHeader(headerNames.toArray(new String[0]))
+                .setSkipHeaderRecord(false)
+                .build();
+    }
+
+    static void closeQuietly(CSVParser parser) {
+        try {
+            parser.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Maps a parsed record, given the 1-based line of the file it starts on.
+    public interface LineMapper<T> {
+        T map(CSVRecord record, long sourceLine);
+    }
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+// Open-addressing set of primitive longs with linear probing. Slots live in fixed-size long[] segments, so the table
+// can exceed the 2^31 element limit of a single array, costs 8 bytes per slot with no per-key objects, and gives the
+// garbage collector a handful of large primitive arrays instead of hundreds of millions of boxed entries to trace.
+public class LongHashSet {
+    private static final int SEGMENT_BITS = 20;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final double MAX_LOAD = 0.7;
+    // 0 marks an empty slot, so the key 0 itself is tracked separately.
+    private static final long EMPTY = 0;
+
+    private long[][] segments;
+    private long mask;
+    private long size;
+    private long resizeThreshold;
+    private boolean containsEmpty;
+
+    public LongHashSet(long expectedSize) {
+        allocate(Math.max(16, Long.highestOneBit((long) (Math.max(expectedSize, 1) / MAX_LOAD)) << 1));
+    }
+
+    private void allocate(long capacity) {
+        int segmentCount = (int) Math.max(1, capacity >>> SEGMENT_BITS);
+        int segmentLength = (int) Math.min(capacity, SEGMENT_SIZE);
+        segments = new long[segmentCount][];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new long[segmentLength];
+        }
+        mask = capacity - 1;
+        resizeThreshold = (long) (capacity * MAX_LOAD);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean contains(long key) {
+        if (key == EMPTY) {
+            return containsEmpty;
+        }
+        for (long slot = slot(key); ; slot = (slot + 1) & mask) {
+            long value = get(slot);
+            if (value == EMPTY) {
+                return false;
+            }
+            if (value == key) {
+                return true;
+            }
+        }
+    }
+
+    // Returns false if the key was already present.
+    public boolean add(long key) {
+        if (key == EMPTY) {
+            if (containsEmpty) {
+                return false;
+            }
+            containsEmpty = true;
+            size++;
+            return true;
+        }
+        for (long slot = slot(key); ; slot = (slot + 1) & mask) {
+            long value = get(slot);
+            if (value == key) {
+                return false;
+            }
+            if (value == EMPTY) {
+                set(slot, key);
+                if (++size > resizeThreshold) {
+                    grow();
+                }
+                return true;
+            }
+        }
+    }
+
+    // Returns false if the key was not present. Later entries of the probe chain are shifted back into the freed slot,
+    // so lookups never need tombstones.
+    public boolean remove(long key) {
+        if (key == EMPTY) {
+            if (!containsEmpty) {
+                return false;
+            }
+            containsEmpty = false;
+            size--;
+            return true;
+        }
+        long hole = slot(key);
+        for (long value = get(hole); value != key; value = get(hole)) {
+            if (value == EMPTY) {
+                return false;
+            }
+            hole = (hole + 1) & mask;
+        }
+        for (long next = (hole + 1) & mask; ; next = (next + 1) & mask) {
+            long value = get(next);
+            if (value == EMPTY) {
+                break;
+            }
+            long home = slot(value);
+            // Move the entry back unless its home slot lies cyclically in (hole, next].
+            boolean reachable = hole <= next ? (hole < home && home <= next) : (hole < home || home <= next);
+            if (!reachable) {
+                set(hole, value);
+                hole = next;
+            }
+        }
+        set(hole, EMPTY);
+        size--;
+        return true;
+    }
+
+    private void grow() {
+        long[][] old = segments;
+        allocate((mask + 1) << 1);
+        size = containsEmpty ? 1 : 0;
+        for (long[] segment : old) {
+            for (long key : segment) {
+                if (key != EMPTY) {
+                    reinsert(key);
+                }
+            }
+        }
+    }
+
+    private void reinsert(long key) {
+        long slot = slot(key);
+        while (get(slot) != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        set(slot, key);
+        size++;
+    }
+
+    // Home slot of the key; package-private so tests can build probe chains across segments.
+    long slot(long key) {
+        // Murmur3 finalizer, so sequential or low-entropy keys still spread over the table.
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key & mask;
+    }
+
+    private long get(long slot) {
+        return segments[(int) (slot >>> SEGMENT_BITS)][(int) (slot & SEGMENT_MASK)];
+    }
+
+    private void set(long slot, long value) {
+        segments[(int) (slot >>> SEGMENT_BITS)][(int) (slot & SEGMENT_MASK)] = value;
+    }
+
+    // Writes the keys to a temporary file first and moves it into place, so a crash never leaves a truncated set.
+    public void save(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeLong(size);
+            if (containsEmpty) {
+                out.writeLong(EMPTY);
+            }
+            for (long[] segment : segments) {
+                for (long key : segment) {
+                    if (key != EMPTY) {
+                        out.writeLong(key);
+                    }
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static LongHashSet load(Path file, long expectedSize) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            long count = in.readLong();
+            LongHashSet set = new LongHashSet(Math.max(count, expectedSize));
+            for (long i = 0; i < count; i++) {
+                set.add(in.readLong());
+            }
+            return set;
+        }
+    }
+}
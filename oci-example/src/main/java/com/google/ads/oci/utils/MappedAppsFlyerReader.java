@@ -0,0 +1,333 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.utils;
+
+import com.google.ads.oci.models.AFConversionRecord;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongPredicate;
+import java.util.stream.Stream;
+
+// Reads AppsFlyer conversions straight from the mapped file. Each chunk is mapped read-only and scanned for field
+// boundaries by byte offset. The row filter sees views over the raw bytes, and only rows it accepts have the columns
+// a conversion needs decoded; all other rows and columns are skipped without creating a String.
+public class MappedAppsFlyerReader {
+    private static final String[] COLUMNS = {"Event Name", "Event Time", "Sub Param 1", "Sub Param 3", "Event Value",
+            "Event Revenue Currency", "Attributed Touch Time"};
+    private static final int EVENT_NAME = 0;
+    private static final int EVENT_TIME = 1;
+    private static final int GCLID = 2;
+    private static final int WBRAID = 3;
+    private static final int VALUE = 4;
+    private static final int CURRENCY = 5;
+    private static final int TOUCH_TIME = 6;
+
+    private final Path file;
+    private final int[] slotOfColumn;
+    private final long firstRow;
+    private final LongPredicate rowFilter;
+    private final AFRowFilter eventFilter;
+    private final AFDateTimeConverter dateTimeConverter;
+
+    private MappedAppsFlyerReader(Path file, List<String> header, long firstRow, LongPredicate rowFilter,
+                                  AFRowFilter eventFilter, AFDateTimeConverter dateTimeConverter) {
+        this.file = file;
+        this.firstRow = firstRow;
+        this.rowFilter = rowFilter;
+        this.eventFilter = eventFilter;
+        this.dateTimeConverter = dateTimeConverter;
+        slotOfColumn = new int[header.size()];
+        Arrays.fill(slotOfColumn, -1);
+        for (int slot = 0; slot < COLUMNS.length; slot++) {
+            int column = header.indexOf(COLUMNS[slot]);
+            if (column < 0 && slot == TOUCH_TIME) {
+                continue;
+            }
+            if (column < 0) {
+                throw new IllegalArgumentException("Mapping for " + COLUMNS[slot] + " not found, expected one of "
+                        + header);
+            }
+            slotOfColumn[column] = slot;
+        }
+    }
+
+    // Rows before firstRow and rows rejected by rowFilter or eventFilter are skipped. Row numbers and offsets of the
+    // returned records match those of CSVUtil.streamAppsFlyerCSV, so they can be journaled and resumed the same way.
+    public static Stream<AFConversionRecord> streamAppsFlyerCSV(String fileName, int parallelism, long firstRow,
+                                                                LongPredicate rowFilter, AFRowFilter eventFilter,
+                                                                AFDateTimeConverter dateTimeConverter) {
+        return streamAppsFlyerCSV(fileName, parallelism, firstRow, rowFilter, eventFilter, dateTimeConverter,
+                ParallelCSVReader.ChunkListener.NONE);
+    }
+
+    // Also reports each chunk once it is parsed, filtered and mapped.
+    public static Stream<AFConversionRecord> streamAppsFlyerCSV(String fileName, int parallelism, long firstRow,
+                                                                LongPredicate rowFilter, AFRowFilter eventFilter,
+                                                                AFDateTimeConverter dateTimeConverter,
+                                                                ParallelCSVReader.ChunkListener listener) {
+        return streamAppsFlyerCSV(fileName, parallelism, ParallelCSVReader.CHUNK_BYTES, firstRow, rowFilter,
+                eventFilter, dateTimeConverter, listener);
+    }
+
+    // Cuts the file into chunks of about chunkBytes; small chunks let tests put boundaries anywhere.
+    static Stream<AFConversionRecord> streamAppsFlyerCSV(String fileName, int parallelism, long chunkBytes,
+                                                         long firstRow, LongPredicate rowFilter,
+                                                         AFRowFilter eventFilter,
+                                                         AFDateTimeConverter dateTimeConverter,
+                                                         ParallelCSVReader.ChunkListener listener) {
+        try {
+            Path file = Paths.get(fileName);
+            MappedAppsFlyerReader reader = new MappedAppsFlyerReader(
+                    file, CSVUtil.readHeader(fileName), firstRow, rowFilter, eventFilter, dateTimeConverter);
+            return ParallelCSVReader.streamChunks(file, parallelism, chunkBytes, reader::parse, listener);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return Stream.empty();
+    }
+
+    private List<AFConversionRecord> parse(CSVChunkScanner.Chunk chunk) {
+        if (chunk.lastRow() < firstRow) {
+            return Collections.emptyList();
+        }
+        // Chunks are a few megabytes, far below the 2 GB a single mapping can cover.
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunk.startByte,
+                    chunk.endByte - chunk.startByte);
+            return new ChunkParser(buffer).parse(chunk);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Field positions of the current record, indexed by slot. Quoted fields exclude the surrounding quotes.
+    private class ChunkParser {
+        private final ByteBuffer buffer;
+        private final int limit;
+        private final int[] fieldStart = new int[COLUMNS.length];
+        private final int[] fieldEnd = new int[COLUMNS.length];
+        private final boolean[] fieldEscaped = new boolean[COLUMNS.length];
+        private final ByteSequence[] views = new ByteSequence[COLUMNS.length];
+        private byte[] scratch = new byte[256];
+        private long charPosition;
+        private long line;
+
+        ChunkParser(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.limit = buffer.limit();
+            for (int slot = 0; slot < views.length; slot++) {
+                views[slot] = new ByteSequence();
+            }
+        }
+
+        List<AFConversionRecord> parse(CSVChunkScanner.Chunk chunk) {
+            List<AFConversionRecord> results = new ArrayList<>();
+            charPosition = chunk.startChar;
+            line = chunk.startLine;
+            long row = chunk.firstRow;
+            int position = 0;
+            while (position < limit) {
+                // The offset of a record is where the empty lines before it start, as with CSVParser, but its line
+                // is the one its content starts on.
+                long recordOffset = charPosition;
+                int recordStart = position;
+                // Empty lines are skipped without being numbered, as CSVParser does.
+                while (position < limit && (buffer.get(position) == '\n' || buffer.get(position) == '\r')) {
+                    position++;
+                }
+                if (position == limit) {
+                    break;
+                }
+                advance(recordStart, position);
+                long recordLine = line;
+                int contentStart = position;
+                position = scanRecord(position);
+                advance(contentStart, position);
+                long recordRow = row++;
+
+                if (recordRow < firstRow || !rowFilter.test(recordRow) || !eventFilter.test(field(EVENT_NAME),
+                        field(GCLID), field(WBRAID), field(EVENT_TIME), field(TOUCH_TIME))) {
+                    continue;
+                }
+                String convertedDateTime = dateTimeConverter.convert(field(EVENT_TIME));
+                results.add(AFConversionRecord.fromColumns(
+                        eventFilter.allowedEventName(field(EVENT_NAME)),
+                        decode(GCLID),
+                        decode(WBRAID),
+                        decode(VALUE),
+                        decode(CURRENCY),
+                        convertedDateTime,
+                        recordRow,
+                        recordOffset,
+                        recordLine));
+            }
+            return results;
+        }
+
+        // Records the bounds of the wanted fields and returns the position after the record's line end. Columns
+        // missing from a short record read as empty.
+        private int scanRecord(int position) {
+            Arrays.fill(fieldStart, 0);
+            Arrays.fill(fieldEnd, 0);
+            Arrays.fill(fieldEscaped, false);
+            int column = 0;
+            while (true) {
+                int start = position;
+                int end = -1;
+                boolean escaped = false;
+                if (position < limit && buffer.get(position) == '"') {
+                    start = ++position;
+                    while (position < limit) {
+                        if (buffer.get(position) == '"') {
+                            if (position + 1 < limit && buffer.get(position + 1) == '"') {
+                                escaped = true;
+                                position += 2;
+                                continue;
+                            }
+                            break;
+                        }
+                        position++;
+                    }
+                    end = position++;
+                }
+                while (position < limit && buffer.get(position) != ',' && buffer.get(position) != '\n') {
+                    position++;
+                }
+                if (end < 0) {
+                    end = position > start && buffer.get(position - 1) == '\r' ? position - 1 : position;
+                }
+
+                int slot = column < slotOfColumn.length ? slotOfColumn[column] : -1;
+                if (slot >= 0) {
+                    fieldStart[slot] = start;
+                    fieldEnd[slot] = Math.min(end, limit);
+                    fieldEscaped[slot] = escaped;
+                }
+                if (position >= limit) {
+                    return limit;
+                }
+                if (buffer.get(position++) == '\n') {
+                    return position;
+                }
+                column++;
+            }
+        }
+
+        // A view over the field's bytes, or the decoded field when it holds escaped quotes or non-ASCII bytes.
+        private CharSequence field(int slot) {
+            int start = fieldStart[slot];
+            int end = fieldEnd[slot];
+            if (fieldEscaped[slot]) {
+                return decode(slot);
+            }
+            for (int i = start; i < end; i++) {
+                if (buffer.get(i) < 0) {
+                    return decode(slot);
+                }
+            }
+            return views[slot].of(start, end);
+        }
+
+        private String decode(int slot) {
+            int length = copy(slot);
+            return length == 0 ? "" : new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        // Copies the field into the scratch array, collapsing escaped quotes, and returns its length.
+        private int copy(int slot) {
+            int start = fieldStart[slot];
+            int length = fieldEnd[slot] - start;
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                scratch[i] = buffer.get(start + i);
+            }
+            if (!fieldEscaped[slot]) {
+                return length;
+            }
+            int out = 0;
+            for (int i = 0; i < length; i++) {
+                scratch[out++] = scratch[i];
+                if (scratch[i] == '"') {
+                    i++;
+                }
+            }
+            return out;
+        }
+
+        // Moves the character position and line past the given bytes. UTF-8 continuation bytes add no character,
+        // 4-byte sequences decode to a surrogate pair.
+        private void advance(int from, int to) {
+            for (int i = from; i < to; i++) {
+                byte b = buffer.get(i);
+                if ((b & 0xC0) != 0x80) {
+                    charPosition += (b & 0xF8) == 0xF0 ? 2 : 1;
+                }
+                if (b == '\n') {
+                    line++;
+                }
+            }
+        }
+
+        private class ByteSequence implements CharSequence {
+            private int start;
+            private int length;
+
+            ByteSequence of(int start, int end) {
+                this.start = start;
+                this.length = end - start;
+                return this;
+            }
+
+            @Override
+            public int length() {
+                return length;
+            }
+
+            @Override
+            public char charAt(int index) {
+                return (char) buffer.get(start + index);
+            }
+
+            @Override
+            public CharSequence subSequence(int start, int end) {
+                return toString().subSequence(start, end);
+            }
+
+            @Override
+            public String toString() {
+                byte[] bytes = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    bytes[i] = buffer.get(start + i);
+                }
+                return new String(bytes, StandardCharsets.US_ASCII);
+            }
+        }
+    }
+}
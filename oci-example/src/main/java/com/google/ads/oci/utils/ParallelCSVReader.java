@@ -0,0 +1,191 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.utils;
+
+import com.google.common.io.ByteStreams;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Parses and maps a CSV file on a fork-join pool. The file is cut into byte ranges at record boundaries as it is
+// consumed, each range is parsed and mapped by a pool worker, and results are emitted in file order. Only a window of
+// chunks is in flight at a time, so memory stays bounded and the first records are available before the file is read.
+public class ParallelCSVReader {
+    static final long CHUNK_BYTES = 8L << 20;
+
+    // Rows before firstRow are skipped, and whole chunks before it are not parsed at all. Records rejected by the
+    // filter are not mapped. Record numbers and character positions match those of CSVUtil.streamAppsFlyerCSV.
+    public static <T> Stream<T> streamAppsFlyerCSV(String fileName, int parallelism, long firstRow,
+                                                   Predicate<CSVRecord> filter,
+                                                   Function<CSVRecord, Optional<T>> mapper) {
+        return streamAppsFlyerCSV(fileName, parallelism, firstRow, filter,
+                (record, sourceLine) -> mapper.apply(record), ChunkListener.NONE);
+    }
+
+    // Also passes the line each record starts on to the mapper, and reports each chunk once it is parsed and mapped.
+    public static <T> Stream<T> streamAppsFlyerCSV(String fileName, int parallelism, long firstRow,
+                                                   Predicate<CSVRecord> filter,
+                                                   CSVUtil.LineMapper<Optional<T>> mapper, ChunkListener listener) {
+        return streamAppsFlyerCSV(fileName, parallelism, CHUNK_BYTES, firstRow, filter, mapper, listener);
+    }
+
+    // With the chunk size as a parameter, tests can cut a small file into many chunks.
+    static <T> Stream<T> streamAppsFlyerCSV(String fileName, int parallelism, long chunkBytes, long firstRow,
+                                            Predicate<CSVRecord> filter, CSVUtil.LineMapper<Optional<T>> mapper,
+                                            ChunkListener listener) {
+        try {
+            Path file = Paths.get(fileName);
+            CSVFormat format = CSVUtil.dataFormat(CSVUtil.readHeader(fileName));
+            return streamChunks(file, parallelism, chunkBytes, chunk -> {
+                if (chunk.lastRow() < firstRow) {
+                    return Collections.emptyList();
+                }
+                return parseChunk(file, format, chunk,
+                        record -> record.getRecordNumber() >= firstRow && filter.test(record), mapper);
+            }, listener);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return Stream.empty();
+    }
+
+    // Runs chunkParser over chunks of about chunkBytes on a pool of the given size and concatenates the results in
+    // order. Each chunk is timed as a whole, so the pool threads share no per-row counters.
+    static <T> Stream<T> streamChunks(Path file, int parallelism, long chunkBytes,
+                                      Function<CSVChunkScanner.Chunk, List<T>> chunkParser,
+                                      ChunkListener listener) throws IOException {
+        CSVChunkScanner scanner = new CSVChunkScanner(file);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Function<CSVChunkScanner.Chunk, List<T>> timedParser = chunk -> {
+            long start = System.nanoTime();
+            List<T> results = chunkParser.apply(chunk);
+            listener.onChunk(System.nanoTime() - start, results.size());
+            return results;
+        };
+        Iterator<List<T>> chunks = new ChunkIterator<>(scanner, pool, parallelism * 2, chunkBytes, timedParser);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(chunks, Spliterator.ORDERED), false)
+                .flatMap(List::stream)
+                .onClose(() -> {
+                    pool.shutdownNow();
+                    try {
+                        scanner.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                });
+    }
+
+    private static <T> List<T> parseChunk(Path file, CSVFormat format, CSVChunkScanner.Chunk chunk,
+                                          Predicate<CSVRecord> filter, CSVUtil.LineMapper<Optional<T>> mapper) {
+        List<T> results = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.position(chunk.startByte);
+            InputStreamReader reader = new InputStreamReader(
+                    ByteStreams.limit(Channels.newInputStream(channel), chunk.endByte - chunk.startByte),
+                    StandardCharsets.UTF_8);
+            try (CSVParser parser = new CSVParser(reader, format, chunk.startChar, chunk.firstRow)) {
+                for (CSVRecord record : parser) {
+                    if (filter.test(record)) {
+                        mapper.map(record, CSVUtil.sourceLine(parser, record, chunk.startLine)).ifPresent(results::add);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return results;
+    }
+
+    private static class ChunkIterator<T> implements Iterator<List<T>> {
+        private final CSVChunkScanner scanner;
+        private final ForkJoinPool pool;
+        private final int window;
+        private final long chunkBytes;
+        private final Function<CSVChunkScanner.Chunk, List<T>> parser;
+        private final Deque<ForkJoinTask<List<T>>> inFlight = new ArrayDeque<>();
+
+        ChunkIterator(CSVChunkScanner scanner, ForkJoinPool pool, int window, long chunkBytes,
+                      Function<CSVChunkScanner.Chunk, List<T>> parser) {
+            this.scanner = scanner;
+            this.pool = pool;
+            this.window = window;
+            this.chunkBytes = chunkBytes;
+            this.parser = parser;
+        }
+
+        // Scanning for boundaries happens on the consuming thread; it only looks at bytes and stays ahead of parsing.
+        private void fill() {
+            try {
+                while (inFlight.size() < window && scanner.hasNext()) {
+                    CSVChunkScanner.Chunk chunk = scanner.next(chunkBytes);
+                    inFlight.add(pool.submit(() -> parser.apply(chunk)));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            fill();
+            return !inFlight.isEmpty();
+        }
+
+        @Override
+        public List<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return inFlight.poll().join();
+        }
+    }
+
+    // Notified on a pool thread after each chunk, with the time taken to parse, filter and map it and the number of
+    // records it produced.
+    public interface ChunkListener {
+        ChunkListener NONE = (nanos, records) -> {
+        };
+
+        void onChunk(long nanos, int records);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.utils;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Reads the source on a dedicated thread and hands the bytes over in large buffers through a small bounded queue, so
+// an expensive source such as a decompressor runs on its own core while the caller parses. Buffers are recycled
+// between the two threads, so memory stays at BUFFERS buffers whatever the input size.
+class PipelinedInputStream extends InputStream {
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int BUFFERS = 4;
+    private static final Buffer END_OF_STREAM = new Buffer(0);
+
+    private final BlockingQueue<Buffer> empty = new ArrayBlockingQueue<>(BUFFERS);
+    // One more slot than buffers, so the end of the stream can always be queued.
+    private final BlockingQueue<Buffer> filled = new ArrayBlockingQueue<>(BUFFERS + 1);
+    private final Thread reader;
+    private volatile IOException failure;
+    private Buffer current;
+    private int position;
+
+    PipelinedInputStream(InputStream source, String threadName) {
+        for (int i = 0; i < BUFFERS; i++) {
+            empty.add(new Buffer(BUFFER_SIZE));
+        }
+        reader = new Thread(() -> readLoop(source), threadName);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void readLoop(InputStream source) {
+        try (InputStream in = source) {
+            while (true) {
+                Buffer buffer = empty.take();
+                buffer.length = ByteStreams.read(in, buffer.bytes, 0, buffer.bytes.length);
+                if (buffer.length > 0) {
+                    filled.add(buffer);
+                }
+                if (buffer.length < buffer.bytes.length) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            // Closed by the reading side.
+        } finally {
+            filled.add(END_OF_STREAM);
+        }
+    }
+
+    // Makes the next buffer current when the current one is used up. Returns false at the end of the stream.
+    private boolean fill() throws IOException {
+        if (current != null && position < current.length) {
+            return true;
+        }
+        if (current == END_OF_STREAM) {
+            return false;
+        }
+        if (current != null) {
+            empty.add(current);
+        }
+        try {
+            current = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for input");
+        }
+        position = 0;
+        if (current == END_OF_STREAM) {
+            if (failure != null) {
+                throw new IOException("Reading the input failed", failure);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return fill() ? current.bytes[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current.bytes, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current == null || current == END_OF_STREAM ? 0 : current.length - position;
+    }
+
+    // Stops the reading thread, which closes the source.
+    @Override
+    public void close() {
+        reader.interrupt();
+    }
+
+    private static final class Buffer {
+        private final byte[] bytes;
+        private int length;
+
+        private Buffer(int size) {
+            this.bytes = new byte[size];
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.fake;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// A local stand-in for the Google Ads ConversionUploadService, for throughput and soak tests without a live account.
+// Point the uploader at it with --endpoint=localhost:<port> --plaintext=true. It can run in-process, e.g. from a
+// benchmark, or standalone:
+//   java -cp benchmarks.jar com.google.ads.oci.fake.FakeConversionUploadServer --port=50051 --median-latency-ms=80
+public class FakeConversionUploadServer implements AutoCloseable {
+    private final Server server;
+    private final ScheduledExecutorService scheduler;
+    private final FakeConversionUploadService service;
+
+    public FakeConversionUploadServer(FakeServerOptions options) throws IOException {
+        scheduler = Executors.newScheduledThreadPool(2,
+                new ThreadFactoryBuilder().setNameFormat("fake-upload-server-%d").setDaemon(true).build());
+        service = new FakeConversionUploadService(options, scheduler);
+        server = ServerBuilder.forPort(options.getPort()).addService(service).build().start();
+    }
+
+    public int getPort() {
+        return server.getPort();
+    }
+
+    public String getEndpoint() {
+        return "localhost:" + getPort();
+    }
+
+    public String getStats() {
+        return String.format("%d requests, %d conversions, %d partial failures, %d RESOURCE_EXHAUSTED",
+                service.requests.sum(), service.conversions.sum(), service.partialFailures.sum(), service.resourceExhausted.sum());
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        server.shutdown();
+        if (!server.awaitTermination(5, TimeUnit.SECONDS)) {
+            server.shutdownNow();
+        }
+        scheduler.shutdownNow();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> flags = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Unrecognized argument: " + arg);
+            }
+            flags.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+
+        FakeConversionUploadServer server = new FakeConversionUploadServer(FakeServerOptions.fromFlags(flags));
+        System.out.println("Fake ConversionUploadService listening on " + server.getEndpoint());
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println(server.getStats());
+            stopped.countDown();
+        }));
+        stopped.await();
+    }
+}
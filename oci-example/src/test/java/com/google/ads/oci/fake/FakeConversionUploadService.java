@@ -0,0 +1,138 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.fake;
+
+import com.google.ads.googleads.v13.errors.ConversionUploadErrorEnum.ConversionUploadError;
+import com.google.ads.googleads.v13.errors.ErrorCode;
+import com.google.ads.googleads.v13.errors.ErrorLocation;
+import com.google.ads.googleads.v13.errors.GoogleAdsError;
+import com.google.ads.googleads.v13.errors.GoogleAdsFailure;
+import com.google.ads.googleads.v13.services.ClickConversion;
+import com.google.ads.googleads.v13.services.ClickConversionResult;
+import com.google.ads.googleads.v13.services.ConversionUploadServiceGrpc;
+import com.google.ads.googleads.v13.services.UploadClickConversionsRequest;
+import com.google.ads.googleads.v13.services.UploadClickConversionsResponse;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.protobuf.Any;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Answers uploads like the real service would, after a simulated latency, with injected partial failures and quota
+// errors. Responses are completed from a scheduler rather than by sleeping, so slow responses hold no server threads.
+class FakeConversionUploadService extends ConversionUploadServiceGrpc.ConversionUploadServiceImplBase {
+    // z-score of the 99th percentile of the standard normal distribution.
+    private static final double P99_Z = 2.326;
+    private static final int INVALID_ARGUMENT = 3;
+
+    private final FakeServerOptions options;
+    private final ScheduledExecutorService scheduler;
+    private final RateLimiter rateLimiter;
+    private final double latencySigma;
+    private final AtomicInteger exhaustedRequestsLeft;
+    final LongAdder requests = new LongAdder();
+    final LongAdder conversions = new LongAdder();
+    final LongAdder partialFailures = new LongAdder();
+    final LongAdder resourceExhausted = new LongAdder();
+
+    FakeConversionUploadService(FakeServerOptions options, ScheduledExecutorService scheduler) {
+        this.options = options;
+        this.scheduler = scheduler;
+        this.rateLimiter = options.getMaxConversionsPerSecond() > 0 ? RateLimiter.create(options.getMaxConversionsPerSecond()) : null;
+        this.latencySigma = options.getMedianLatencyMillis() > 0 && options.getP99LatencyMillis() > options.getMedianLatencyMillis()
+                ? Math.log((double) options.getP99LatencyMillis() / options.getMedianLatencyMillis()) / P99_Z
+                : 0;
+        this.exhaustedRequestsLeft = new AtomicInteger(options.getResourceExhaustedRequests());
+    }
+
+    @Override
+    public void uploadClickConversions(UploadClickConversionsRequest request,
+                                       StreamObserver<UploadClickConversionsResponse> responseObserver) {
+        requests.increment();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        boolean throttled = rateLimiter != null && !rateLimiter.tryAcquire(Math.max(1, request.getConversionsCount()));
+        if (throttled || exhaustedRequestsLeft.getAndUpdate(left -> Math.max(0, left - 1)) > 0
+                || random.nextDouble() < options.getResourceExhaustedRate()) {
+            resourceExhausted.increment();
+            respond(() -> responseObserver.onError(Status.RESOURCE_EXHAUSTED
+                    .withDescription("Fake quota exhausted").asRuntimeException()));
+            return;
+        }
+
+        conversions.add(request.getConversionsCount());
+        UploadClickConversionsResponse.Builder response = UploadClickConversionsResponse.newBuilder();
+        GoogleAdsFailure.Builder failure = GoogleAdsFailure.newBuilder();
+        boolean failed = false;
+        for (int i = 0; i < request.getConversionsCount(); i++) {
+            ClickConversion conversion = request.getConversionsList().get(i);
+            if (isRejected(conversion) || random.nextDouble() < options.getPartialFailureRate()) {
+                // Failed operations get an empty result and an error pointing at their index.
+                failed = true;
+                partialFailures.increment();
+                response.addResults(ClickConversionResult.getDefaultInstance());
+                failure.addErrors(GoogleAdsError.newBuilder()
+                        .setErrorCode(ErrorCode.newBuilder().setConversionUploadError(ConversionUploadError.UNPARSEABLE_GCLID))
+                        .setMessage("The click ID could not be decoded.")
+                        .setLocation(ErrorLocation.newBuilder().addFieldPathElements(
+                                ErrorLocation.FieldPathElement.newBuilder().setFieldName("conversions").setIndex(i))));
+            } else {
+                response.addResults(ClickConversionResult.newBuilder()
+                        .setConversionAction(conversion.getConversionAction())
+                        .setConversionDateTime(conversion.getConversionDateTime())
+                        .setGclid(conversion.getGclid())
+                        .setWbraid(conversion.getWbraid()));
+            }
+        }
+        if (failed) {
+            response.setPartialFailureError(com.google.rpc.Status.newBuilder()
+                    .setCode(INVALID_ARGUMENT)
+                    .setMessage("Multiple errors in 'details'. First error: The click ID could not be decoded.")
+                    .addDetails(Any.pack(failure.build()))
+                    .build());
+        }
+        UploadClickConversionsResponse built = response.build();
+        respond(() -> {
+            responseObserver.onNext(built);
+            responseObserver.onCompleted();
+        });
+    }
+
+    private boolean isRejected(ClickConversion conversion) {
+        String prefix = options.getRejectedClickIdPrefix();
+        return prefix != null && conversion.getGclid().startsWith(prefix);
+    }
+
+    private void respond(Runnable completion) {
+        long latency = sampleLatencyMillis();
+        if (latency == 0) {
+            completion.run();
+        } else {
+            scheduler.schedule(completion, latency, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private long sampleLatencyMillis() {
+        if (options.getMedianLatencyMillis() == 0) {
+            return 0;
+        }
+        return Math.round(options.getMedianLatencyMillis() * Math.exp(latencySigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+}
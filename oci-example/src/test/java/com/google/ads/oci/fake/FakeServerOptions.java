@@ -0,0 +1,147 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.fake;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Map;
+
+public class FakeServerOptions {
+    private int port;
+    private long medianLatencyMillis = 50;
+    private long p99LatencyMillis = 200;
+    private double partialFailureRate;
+    private double resourceExhaustedRate;
+    private double maxConversionsPerSecond;
+    private int resourceExhaustedRequests;
+    private String rejectedClickIdPrefix;
+
+    // Reads --port, --median-latency-ms, --p99-latency-ms, --partial-failure-rate, --resource-exhausted-rate,
+    // --max-conversions-per-second, --resource-exhausted-requests and --rejected-click-id-prefix.
+    public static FakeServerOptions fromFlags(Map<String, String> flags) {
+        FakeServerOptions options = new FakeServerOptions();
+        if (flags.containsKey("port")) {
+            options.setPort(Integer.parseInt(flags.get("port")));
+        }
+        if (flags.containsKey("median-latency-ms")) {
+            options.setMedianLatencyMillis(Long.parseLong(flags.get("median-latency-ms")));
+        }
+        if (flags.containsKey("p99-latency-ms")) {
+            options.setP99LatencyMillis(Long.parseLong(flags.get("p99-latency-ms")));
+        }
+        if (flags.containsKey("partial-failure-rate")) {
+            options.setPartialFailureRate(Double.parseDouble(flags.get("partial-failure-rate")));
+        }
+        if (flags.containsKey("resource-exhausted-rate")) {
+            options.setResourceExhaustedRate(Double.parseDouble(flags.get("resource-exhausted-rate")));
+        }
+        if (flags.containsKey("max-conversions-per-second")) {
+            options.setMaxConversionsPerSecond(Double.parseDouble(flags.get("max-conversions-per-second")));
+        }
+        if (flags.containsKey("resource-exhausted-requests")) {
+            options.setResourceExhaustedRequests(Integer.parseInt(flags.get("resource-exhausted-requests")));
+        }
+        if (flags.containsKey("rejected-click-id-prefix")) {
+            options.setRejectedClickIdPrefix(flags.get("rejected-click-id-prefix"));
+        }
+        return options;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    // 0 picks a free port.
+    public FakeServerOptions setPort(int port) {
+        this.port = port;
+        return this;
+    }
+
+    public long getMedianLatencyMillis() {
+        return medianLatencyMillis;
+    }
+
+    // Response latencies follow a log-normal distribution with this median and the p99 below.
+    public FakeServerOptions setMedianLatencyMillis(long medianLatencyMillis) {
+        Preconditions.checkArgument(medianLatencyMillis >= 0, "medianLatencyMillis must not be negative");
+        this.medianLatencyMillis = medianLatencyMillis;
+        return this;
+    }
+
+    public long getP99LatencyMillis() {
+        return p99LatencyMillis;
+    }
+
+    public FakeServerOptions setP99LatencyMillis(long p99LatencyMillis) {
+        Preconditions.checkArgument(p99LatencyMillis >= 0, "p99LatencyMillis must not be negative");
+        this.p99LatencyMillis = p99LatencyMillis;
+        return this;
+    }
+
+    public double getPartialFailureRate() {
+        return partialFailureRate;
+    }
+
+    // Share of conversions rejected with a partial failure error.
+    public FakeServerOptions setPartialFailureRate(double partialFailureRate) {
+        Preconditions.checkArgument(partialFailureRate >= 0 && partialFailureRate <= 1, "partialFailureRate must be in [0, 1]");
+        this.partialFailureRate = partialFailureRate;
+        return this;
+    }
+
+    public double getResourceExhaustedRate() {
+        return resourceExhaustedRate;
+    }
+
+    // Share of requests failed as a whole with RESOURCE_EXHAUSTED, independent of the throughput cap.
+    public FakeServerOptions setResourceExhaustedRate(double resourceExhaustedRate) {
+        Preconditions.checkArgument(resourceExhaustedRate >= 0 && resourceExhaustedRate <= 1, "resourceExhaustedRate must be in [0, 1]");
+        this.resourceExhaustedRate = resourceExhaustedRate;
+        return this;
+    }
+
+    public double getMaxConversionsPerSecond() {
+        return maxConversionsPerSecond;
+    }
+
+    // Requests beyond this rate are failed with RESOURCE_EXHAUSTED. 0 means unlimited.
+    public FakeServerOptions setMaxConversionsPerSecond(double maxConversionsPerSecond) {
+        Preconditions.checkArgument(maxConversionsPerSecond >= 0, "maxConversionsPerSecond must not be negative");
+        this.maxConversionsPerSecond = maxConversionsPerSecond;
+        return this;
+    }
+
+    public int getResourceExhaustedRequests() {
+        return resourceExhaustedRequests;
+    }
+
+    // Number of first requests failed as a whole with RESOURCE_EXHAUSTED, for tests that need an exact outcome.
+    public FakeServerOptions setResourceExhaustedRequests(int resourceExhaustedRequests) {
+        Preconditions.checkArgument(resourceExhaustedRequests >= 0, "resourceExhaustedRequests must not be negative");
+        this.resourceExhaustedRequests = resourceExhaustedRequests;
+        return this;
+    }
+
+    public String getRejectedClickIdPrefix() {
+        return rejectedClickIdPrefix;
+    }
+
+    // Conversions whose GCLID starts with this prefix are always rejected with a partial failure error.
+    public FakeServerOptions setRejectedClickIdPrefix(String rejectedClickIdPrefix) {
+        this.rejectedClickIdPrefix = rejectedClickIdPrefix;
+        return this;
+    }
+}
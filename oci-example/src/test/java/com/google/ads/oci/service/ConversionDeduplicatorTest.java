@@ -0,0 +1,39 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.oci.models.AFConversionRecord;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConversionDeduplicatorTest {
+    @Test
+    public void sameClickAndTimeOfDifferentEventsAreDistinct() {
+        ConversionDeduplicator deduplicator = ConversionDeduplicator.inMemory();
+        assertTrue(deduplicator.firstSeen(record("install", "gclid-1", "2023-05-01 07:01:00+00:00", 1)));
+        assertTrue(deduplicator.firstSeen(record("purchase", "gclid-1", "2023-05-01 07:01:00+00:00", 2)));
+        assertFalse(deduplicator.firstSeen(record("install", "gclid-1", "2023-05-01 07:01:00+00:00", 3)));
+        assertTrue(deduplicator.firstSeen(record("install", "gclid-1", "2023-05-01 07:02:00+00:00", 4)));
+        assertEquals(1, deduplicator.getDuplicates());
+    }
+
+    private static AFConversionRecord record(String eventName, String gclid, String dateTime, long row) {
+        return AFConversionRecord.fromValues(eventName, gclid, null, null, null, dateTime, row, row * 100, row + 1);
+    }
+}
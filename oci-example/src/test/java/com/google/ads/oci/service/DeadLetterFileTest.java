@@ -0,0 +1,61 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.oci.models.AFConversionRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class DeadLetterFileTest {
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("dead-letter-test", ".csv");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void writesSourceLineAndAppendsWithoutSecondHeader() throws IOException {
+        try (DeadLetterFile deadLetters = DeadLetterFile.open(file)) {
+            deadLetters.deadLetter(AFConversionRecord.fromValues("install", "gclid-1", null, 1.5, "USD",
+                    "2023-05-01 07:01:00+00:00", 3, 120, 7), "INVALID_GCLID", "bad click");
+        }
+        try (DeadLetterFile deadLetters = DeadLetterFile.open(file)) {
+            deadLetters.deadLetter(AFConversionRecord.fromValues("purchase", null, "wbraid-2", null, null,
+                    "2023-05-01 07:02:00+00:00", 4, 160, 9), "UNAVAILABLE", "io, \"failed\"");
+        }
+        assertEquals(Arrays.asList(
+                "Event Name,Event Time,Sub Param 1,Sub Param 3,Event Value,Event Revenue Currency,Source Line,"
+                        + "Error Code,Error Message",
+                "install,2023/5/1 7:01,gclid-1,,1.5,USD,7,INVALID_GCLID,bad click",
+                "purchase,2023/5/1 7:02,,wbraid-2,,,9,UNAVAILABLE,\"io, \"\"failed\"\"\""),
+                Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.oci.fake.FakeConversionUploadServer;
+import com.google.ads.oci.fake.FakeServerOptions;
+import com.google.ads.oci.models.AFConversionRecord;
+import com.google.ads.oci.utils.AFDateTimeConverter;
+import com.google.ads.oci.utils.CSVUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Uploads a small export end to end against the in-process fake server, which rejects two click IDs for good and
+// fails the first request with RESOURCE_EXHAUSTED.
+public class OCIUploadServiceTest {
+    private static final long CUSTOMER_ID = 1234567890L;
+    private static final long CONVERSION_ACTION_ID = 987654321L;
+    private static final int ROWS = 30;
+
+    private Path directory;
+    private Path input;
+    private FakeConversionUploadServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("upload-test");
+        input = directory.resolve("export.csv");
+        StringBuilder csv = new StringBuilder(
+                "Event Name,Event Time,Sub Param 1,Sub Param 3,Event Value,Event Revenue Currency\n");
+        for (int row = 1; row <= ROWS; row++) {
+            String gclid = row == 5 || row == 17 ? "bad-" + row : "gclid-" + row;
+            csv.append("install,2023/5/1 7:").append(row < 10 ? "0" : "").append(row).append(',').append(gclid)
+                    .append(",,2.5,USD\n");
+        }
+        Files.write(input, csv.toString().getBytes(StandardCharsets.UTF_8));
+        server = new FakeConversionUploadServer(new FakeServerOptions()
+                .setMedianLatencyMillis(0)
+                .setP99LatencyMillis(0)
+                .setRejectedClickIdPrefix("bad-")
+                .setResourceExhaustedRequests(1));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void retriesQuotaErrorsAndDeadLettersRejectedRows() throws IOException {
+        Path deadLetterFile = directory.resolve("dead-letters.csv");
+        Path journalFile = directory.resolve("export.journal");
+        UploadOptions options = new UploadOptions()
+                .setEndpoint(server.getEndpoint())
+                .setPlaintext(true)
+                .setBatchSize(10)
+                .setMaxBatchSize(10)
+                .setReportLevel(ResultReporter.Level.SUMMARY);
+        AFDateTimeConverter dateTimeConverter = new AFDateTimeConverter(ZoneOffset.UTC);
+        UploadSummary summary;
+        try (OCIUploadService service = new OCIUploadService(Long.toString(CUSTOMER_ID), "", "", "", "", options);
+             DeadLetterFile deadLetters = DeadLetterFile.open(deadLetterFile);
+             UploadJournal journal = UploadJournal.open(journalFile, input);
+             Stream<AFConversionRecord> records = CSVUtil.streamAppsFlyerCSV(input.toString(), 0, 0,
+                     record -> true, (record, line) -> AFConversionRecord.map(record, dateTimeConverter, line))) {
+            service.setDeadLetterSink(deadLetters);
+            summary = service.uploadAFConversionStream(records, ConversionRouting.single(CONVERSION_ACTION_ID), 1,
+                    Collections.singletonList(journal));
+        }
+
+        assertEquals(ROWS, summary.getConversions());
+        assertEquals(ROWS - 2, summary.getSucceeded());
+        assertEquals(2, summary.getDeadLettered());
+        assertEquals(1, summary.getFailedBatches());
+        assertEquals(0, summary.getAbandonedBatches());
+        assertTrue(summary.toString(), summary.getRetried() > 0);
+        assertTrue(server.getStats(), server.getStats().endsWith("2 partial failures, 1 RESOURCE_EXHAUSTED"));
+
+        // Partial failures are mapped back to the rows at their indices, whichever batch they were retried in.
+        List<String> lines = Files.readAllLines(deadLetterFile, StandardCharsets.UTF_8);
+        Collections.sort(lines.subList(1, lines.size()));
+        assertEquals(Arrays.asList(
+                "Event Name,Event Time,Sub Param 1,Sub Param 3,Event Value,Event Revenue Currency,Source Line,"
+                        + "Error Code,Error Message",
+                "install,2023/5/1 7:05,bad-5,,2.5,USD,6,CONVERSION_UPLOAD_ERROR.UNPARSEABLE_GCLID,"
+                        + "The click ID could not be decoded.",
+                "install,2023/5/1 7:17,bad-17,,2.5,USD,18,CONVERSION_UPLOAD_ERROR.UNPARSEABLE_GCLID,"
+                        + "The click ID could not be decoded."),
+                lines);
+
+        // Dead-lettered rows are done with, so the journal resumes after the last row.
+        try (UploadJournal journal = UploadJournal.open(journalFile, input)) {
+            assertEquals(ROWS, journal.getResumePoint().getRow());
+        }
+    }
+}
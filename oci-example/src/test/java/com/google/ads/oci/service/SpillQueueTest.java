@@ -0,0 +1,140 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.oci.models.AFConversionRecord;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class SpillQueueTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("spill-queue-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void spillsToSegmentsAndHandsOutRecordsInOrder() throws Exception {
+        CountDownLatch read = new CountDownLatch(1);
+        try (SpillQueue queue = SpillQueue.start(records(500).onClose(read::countDown), directory, 10, 1024)) {
+            // Everything past the memory capacity is on disk before the first record is taken.
+            read.await();
+            assertTrue(queue.toString(), queue.toString().startsWith("Spilled 490 records to "));
+            assertTrue(fileCount() > 1);
+            assertEquals(500, assertInOrder(queue, 0));
+        }
+        assertEquals(0, fileCount());
+    }
+
+    @Test
+    public void refillsMemoryOnlyAfterTheSpilledRecordsAreTaken() throws Exception {
+        // The uploader keeps up with the reader part of the time, so records alternate between memory and disk.
+        try (SpillQueue queue = SpillQueue.start(records(20_000), directory, 7, 512)) {
+            assertEquals(20_000, assertInOrder(queue, 0));
+        }
+        assertEquals(0, fileCount());
+    }
+
+    @Test
+    public void handsOutTheSpilledRecordsBeforeAFailure() throws Exception {
+        CountDownLatch read = new CountDownLatch(1);
+        Stream<AFConversionRecord> failing = Stream.concat(records(100), Stream.of(0).map(i -> {
+            throw new IllegalStateException("parse failed");
+        }));
+        try (SpillQueue queue = SpillQueue.start(failing.onClose(read::countDown), directory, 5, 1024)) {
+            read.await();
+            List<AFConversionRecord> taken = new ArrayList<>();
+            IllegalStateException e = assertThrows(IllegalStateException.class, () -> {
+                while (queue.hasNext()) {
+                    taken.add(queue.next());
+                }
+            });
+            assertEquals("parse failed", e.getMessage());
+            assertEquals(100, taken.size());
+            assertEquals("gclid-99", taken.get(99).getGCLID());
+        }
+        assertEquals(0, fileCount());
+    }
+
+    @Test
+    public void failsRatherThanEndsWhenInterrupted() throws Exception {
+        CountDownLatch parsed = new CountDownLatch(1);
+        Stream<AFConversionRecord> blocked = records(1).peek(record -> Uninterruptibles.awaitUninterruptibly(parsed));
+        try (SpillQueue queue = SpillQueue.start(blocked, directory, 5, 1024)) {
+            Thread.currentThread().interrupt();
+            UncheckedIOException e = assertThrows(UncheckedIOException.class, queue::hasNext);
+            assertTrue(e.getCause() instanceof InterruptedIOException);
+            assertTrue(Thread.interrupted());
+            parsed.countDown();
+        }
+    }
+
+    private static Stream<AFConversionRecord> records(int count) {
+        return IntStream.range(0, count).mapToObj(i -> AFConversionRecord.fromValues("install", "gclid-" + i,
+                i % 3 == 0 ? "wbraid-" + i : null, i % 2 == 0 ? (double) i : null, i % 2 == 0 ? "USD" : null,
+                "2023-05-01 07:01:00+00:00", i + 2, 100L * i, i + 2));
+    }
+
+    private static int assertInOrder(SpillQueue queue, int first) {
+        int row = first;
+        while (queue.hasNext()) {
+            AFConversionRecord record = queue.next();
+            assertEquals("gclid-" + row, record.getGCLID());
+            assertEquals(row % 3 == 0 ? "wbraid-" + row : null, record.getWBRAID());
+            assertEquals(row % 2 == 0 ? (Double) (double) row : null, record.getValue());
+            assertEquals(row + 2, record.getSourceRow());
+            assertEquals(100L * row, record.getSourceOffset());
+            row++;
+        }
+        assertFalse(queue.hasNext());
+        return row - first;
+    }
+
+    private long fileCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
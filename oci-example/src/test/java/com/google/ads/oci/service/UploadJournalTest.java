@@ -0,0 +1,164 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.service;
+
+import com.google.ads.oci.models.AFConversionRecord;
+import com.google.ads.oci.utils.AFDateTimeConverter;
+import com.google.ads.oci.utils.CSVUtil;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class UploadJournalTest {
+    private static final String HEADER =
+            "Event Name,Event Time,Sub Param 1,Sub Param 3,Event Value,Event Revenue Currency\n";
+
+    private Path directory;
+    private Path input;
+    private Path journalFile;
+    private List<CSVRecord> records;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal-test");
+        input = directory.resolve("export.csv");
+        journalFile = directory.resolve("export.journal");
+        StringBuilder csv = new StringBuilder(HEADER);
+        for (int row = 1; row <= 10; row++) {
+            // Row 5 has a quoted line break, so rows and lines differ after it.
+            String value = row == 5 ? "\"1\n\"" : "1";
+            csv.append("install,2023/5/1 7:0").append(row % 10).append(",gclid-").append(row).append(",,")
+                    .append(value).append(",USD\n");
+        }
+        Files.write(input, csv.toString().getBytes(StandardCharsets.UTF_8));
+        try (Stream<CSVRecord> stream = CSVUtil.streamAppsFlyerCSV(input.toString())) {
+            records = stream.collect(Collectors.toList());
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void resumesAfterContiguousAcknowledgedPrefix() throws IOException {
+        try (UploadJournal journal = UploadJournal.open(journalFile, input)) {
+            assertEquals(0, journal.getResumePoint().getRow());
+            journal.onGroupComplete(group(1, 3));
+            journal.onGroupComplete(group(4, 6));
+            journal.onGroupComplete(group(8, 9));
+        }
+
+        try (UploadJournal journal = UploadJournal.open(journalFile, input)) {
+            UploadJournal.ResumePoint resumePoint = journal.getResumePoint();
+            assertEquals(6, resumePoint.getRow());
+            assertEquals(records.get(5).getCharacterPosition(), resumePoint.getOffset());
+            assertTrue(journal.isAcknowledged(2));
+            assertFalse(journal.isAcknowledged(7));
+            assertTrue(journal.isAcknowledged(8));
+            assertTrue(journal.isAcknowledged(9));
+            assertFalse(journal.isAcknowledged(10));
+
+            // Reading from the offset starts at the last acknowledged row, numbered as in the full file.
+            try (Stream<CSVRecord> resumed = CSVUtil.streamAppsFlyerCSV(input.toString(), resumePoint.getOffset(),
+                    resumePoint.getRow())) {
+                List<CSVRecord> rest = resumed.collect(Collectors.toList());
+                assertEquals(5, rest.size());
+                for (CSVRecord record : rest) {
+                    CSVRecord expected = records.get((int) record.getRecordNumber() - 1);
+                    assertEquals(expected.get("Sub Param 1"), record.get("Sub Param 1"));
+                    assertEquals(expected.getCharacterPosition(), record.getCharacterPosition());
+                }
+                assertEquals(6, rest.get(0).getRecordNumber());
+            }
+        }
+    }
+
+    @Test
+    public void failedGroupsAreNotAcknowledged() throws IOException {
+        try (UploadJournal journal = UploadJournal.open(journalFile, input)) {
+            BatchGroup failed = group(1, 2);
+            UploadBatch batch = failed.getBatches().get(0);
+            failed.complete(BatchResult.failed(batch, new RuntimeException("UNAVAILABLE"), 0));
+            journal.onGroupComplete(failed);
+            journal.onGroupComplete(group(3, 4));
+        }
+
+        try (UploadJournal journal = UploadJournal.open(journalFile, input)) {
+            assertEquals(0, journal.getResumePoint().getRow());
+            assertFalse(journal.isAcknowledged(1));
+            assertTrue(journal.isAcknowledged(4));
+        }
+    }
+
+    @Test
+    public void ignoresTornLastLine() throws IOException {
+        try (UploadJournal journal = UploadJournal.open(journalFile, input)) {
+            journal.onGroupComplete(group(1, 2));
+        }
+        Files.write(journalFile, "3,4,12".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (UploadJournal journal = UploadJournal.open(journalFile, input)) {
+            assertEquals(2, journal.getResumePoint().getRow());
+        }
+    }
+
+    @Test
+    public void rejectsJournalOfModifiedInput() throws IOException {
+        try (UploadJournal journal = UploadJournal.open(journalFile, input)) {
+            journal.onGroupComplete(group(1, 2));
+        }
+        Files.setLastModifiedTime(input, FileTime.fromMillis(Files.getLastModifiedTime(input).toMillis() + 60_000));
+
+        assertThrows(IllegalStateException.class, () -> UploadJournal.open(journalFile, input));
+    }
+
+    // A completed group of the given rows, with one batch holding all of them.
+    private BatchGroup group(long firstRow, long lastRow) {
+        CSVRecord last = records.get((int) lastRow - 1);
+        BatchGroup group = new BatchGroup(firstRow, lastRow, last.getCharacterPosition());
+        ConversionColumns columns = new ConversionColumns((int) (lastRow - firstRow + 1));
+        AFDateTimeConverter converter = AFDateTimeConverter.utc();
+        for (long row = firstRow; row <= lastRow; row++) {
+            AFConversionRecord record = AFConversionRecord.map(records.get((int) row - 1), converter);
+            columns.add("customers/1/conversionActions/2", record, 0);
+        }
+        group.add(new UploadBatch(firstRow, 1, columns, group));
+        return group;
+    }
+}
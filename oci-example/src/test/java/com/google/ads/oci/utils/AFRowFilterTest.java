@@ -0,0 +1,46 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.utils;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AFRowFilterTest {
+    private static final DateTimeFormatter AF_TIME = DateTimeFormatter.ofPattern("yyyy/M/d H:mm");
+
+    @Test
+    public void rejectsClicksOlderThanTheMaximumAgeFromNow() {
+        AFRowFilter filter = new AFRowFilter().setMaxClickAge(Duration.ofDays(1), ZoneOffset.UTC);
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        assertTrue(filter.test("install", "gclid-1", "", AF_TIME.format(now), ""));
+        assertTrue(filter.test("install", "gclid-2", "", AF_TIME.format(now), AF_TIME.format(now.minusHours(23))));
+        assertFalse(filter.test("install", "gclid-3", "", AF_TIME.format(now), AF_TIME.format(now.minusHours(25))));
+        assertFalse(filter.test("install", "gclid-4", "", AF_TIME.format(now.minusDays(2)), ""));
+
+        filter.refreshClickCutoff();
+        assertTrue(filter.test("install", "gclid-5", "", AF_TIME.format(now.minusHours(23)), ""));
+        assertEquals(3, filter.getAccepted());
+        assertEquals(2, filter.getRejected());
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.utils;
+
+import org.apache.commons.csv.CSVRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class CSVChunkScannerTest {
+    private static final String HEADER =
+            "Event Name,Event Time,Sub Param 1,Sub Param 3,Event Value,Event Revenue Currency\r\n";
+
+    private Path input;
+
+    @Before
+    public void setUp() throws IOException {
+        input = Files.createTempFile("chunk-scanner-test", ".csv");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(input);
+    }
+
+    @Test
+    public void chunksStartAtRecordsParsedFromTheWholeFile() throws IOException {
+        // Quoted line breaks, commas and quotes, CRLF, an empty line, multi-byte characters and a last record
+        // without a line break.
+        String csv = HEADER
+                + "install,2023/5/1 7:01,\"gclid\n1\",,1,USD\r\n"
+                + "install,2023/5/1 7:02,\"a,\"\"b\"\"\r\nc\",,2,EUR\r\n"
+                + "\r\n"
+                + "purchase,2023/5/1 7:03,gé,,3,USD\n"
+                + "install,2023/5/1 7:04,\"😀\n\n\",,4,USD\r\n"
+                + "install,2023/5/1 7:05,gclid-5,,5,USD";
+        Files.write(input, csv.getBytes(StandardCharsets.UTF_8));
+        List<CSVRecord> records;
+        try (Stream<CSVRecord> stream = CSVUtil.streamAppsFlyerCSV(input.toString())) {
+            records = stream.collect(Collectors.toList());
+        }
+        assertEquals(5, records.size());
+
+        long fileBytes = Files.size(input);
+        for (long chunkBytes = 1; chunkBytes <= fileBytes; chunkBytes++) {
+            List<CSVChunkScanner.Chunk> chunks = new ArrayList<>();
+            try (CSVChunkScanner scanner = new CSVChunkScanner(input)) {
+                while (scanner.hasNext()) {
+                    chunks.add(scanner.next(chunkBytes));
+                }
+            }
+            long row = 1;
+            long end = chunks.get(0).startByte;
+            for (CSVChunkScanner.Chunk chunk : chunks) {
+                assertEquals("chunk bytes " + chunkBytes, end, chunk.startByte);
+                assertEquals("chunk bytes " + chunkBytes, row, chunk.firstRow);
+                if (chunk.rows > 0) {
+                    assertEquals("chunk bytes " + chunkBytes,
+                            records.get((int) row - 1).getCharacterPosition(), chunk.startChar);
+                }
+                row += chunk.rows;
+                end = chunk.endByte;
+            }
+            assertEquals(fileBytes, end);
+            assertEquals(records.size() + 1, row);
+        }
+    }
+
+    @Test
+    public void rejectsBareCarriageReturn() throws IOException {
+        Files.write(input, (HEADER + "install,2023/5/1 7:01,gclid-1,,1,USD\rinstall,2023/5/1 7:02,gclid-2,,2,USD\n")
+                .getBytes(StandardCharsets.UTF_8));
+        try (CSVChunkScanner scanner = new CSVChunkScanner(input)) {
+            assertThrows(IOException.class, () -> scanner.next(1 << 20));
+        }
+    }
+
+    @Test
+    public void acceptsCarriageReturnInsideQuotes() throws IOException {
+        Files.write(input, (HEADER + "install,2023/5/1 7:01,\"gclid\r1\",,1,USD\ninstall,2023/5/1 7:02,gclid-2,,2,USD\n")
+                .getBytes(StandardCharsets.UTF_8));
+        try (CSVChunkScanner scanner = new CSVChunkScanner(input)) {
+            CSVChunkScanner.Chunk chunk = scanner.next(1 << 20);
+            assertEquals(2, chunk.rows);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.utils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LongHashSetTest {
+    @Test
+    public void probeChainCrossesSegmentBoundary() {
+        // Two segments; the chain starts in the last two slots of the first one and continues into the second.
+        LongHashSet set = new LongHashSet(1_000_000);
+        List<Long> keys = keysWithSlot(set, LongHashSet.SEGMENT_SIZE - 2, 4);
+        keys.forEach(key -> assertTrue(set.add(key)));
+        keys.forEach(key -> assertTrue(set.contains(key)));
+        assertEquals(4, set.size());
+
+        // Removing the head of the chain shifts the entries in the next segment back across the boundary.
+        assertTrue(set.remove(keys.get(0)));
+        assertFalse(set.contains(keys.get(0)));
+        for (Long key : keys.subList(1, keys.size())) {
+            assertTrue(set.contains(key));
+        }
+        assertTrue(set.remove(keys.get(2)));
+        assertTrue(set.contains(keys.get(1)));
+        assertTrue(set.contains(keys.get(3)));
+        assertFalse(set.remove(keys.get(2)));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void probeChainWrapsAroundTheTable() {
+        LongHashSet set = new LongHashSet(4);
+        List<Long> keys = keysWithSlot(set, 15, 3);
+        keys.forEach(set::add);
+        assertTrue(set.remove(keys.get(0)));
+        assertTrue(set.contains(keys.get(1)));
+        assertTrue(set.contains(keys.get(2)));
+        assertTrue(set.remove(keys.get(1)));
+        assertTrue(set.contains(keys.get(2)));
+        assertFalse(set.contains(keys.get(0)));
+    }
+
+    @Test
+    public void matchesHashSetUnderAddsAndRemoves() {
+        LongHashSet set = new LongHashSet(16);
+        Set<Long> expected = new HashSet<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            // A small key range keeps the chains long and removals frequent; 0 is the set's empty marker.
+            long key = random.nextInt(5_000) - 100;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), set.remove(key));
+            } else {
+                assertEquals(expected.add(key), set.add(key));
+            }
+            long probe = random.nextInt(5_000) - 100;
+            assertEquals(expected.contains(probe), set.contains(probe));
+        }
+        assertEquals(expected.size(), set.size());
+        for (long key = -100; key < 4_900; key++) {
+            assertEquals(expected.contains(key), set.contains(key));
+        }
+    }
+
+    @Test
+    public void saveAndLoadRoundTrip() throws IOException {
+        Path directory = Files.createTempDirectory("long-hash-set-test");
+        Path file = directory.resolve("index");
+        try {
+            LongHashSet set = new LongHashSet(16);
+            Random random = new Random(7);
+            Set<Long> expected = new HashSet<>();
+            for (int i = 0; i < 10_000; i++) {
+                long key = random.nextLong();
+                set.add(key);
+                expected.add(key);
+            }
+            set.add(0);
+            expected.add(0L);
+            set.add(Long.MIN_VALUE);
+            expected.add(Long.MIN_VALUE);
+            set.save(file);
+
+            LongHashSet loaded = LongHashSet.load(file, 0);
+            assertEquals(expected.size(), loaded.size());
+            expected.forEach(key -> assertTrue(loaded.contains(key)));
+            assertFalse(loaded.contains(1));
+            assertFalse(Files.exists(directory.resolve("index.tmp")));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(directory);
+        }
+    }
+
+    private static List<Long> keysWithSlot(LongHashSet set, long slot, int count) {
+        List<Long> keys = new ArrayList<>();
+        for (long key = 1; keys.size() < count; key++) {
+            if (set.slot(key) == slot) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.utils;
+
+import com.google.ads.oci.models.AFConversionRecord;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class MappedAppsFlyerReaderTest {
+    private static final String HEADER =
+            "Event Name,Event Time,Sub Param 1,Sub Param 3,Event Value,Event Revenue Currency\r\n";
+    // Quoted line breaks, commas and escaped quotes, CRLF and LF, empty lines, multi-byte characters, rows the
+    // filter rejects and a last record without a line break.
+    private static final String ROWS = ""
+            + "install,2023/5/1 7:01,\"gclid\n1\",,1,USD\r\n"
+            + "install,2023/5/1 7:02,\"a,\"\"b\"\"\r\nc\",,2.5,EUR\r\n"
+            + "\r\n"
+            + "purchase,2023/5/1 7:03,gclid-3,,3,USD\n"
+            + "install,2023/5/1 7:04,,,4,USD\n"
+            + "install,2023/5/1 7:05,\"gé😀\n\n\",,,\n"
+            + "\n"
+            + "install,2023/5/1 7:06,,wbraid-6,6,\r\n"
+            + "install,2023/5/1 7:07,gclid-7,,7,\"US\"\"D\"\r\n"
+            + "install,2023/5/1 7:08,gclid-8,,8,USD";
+
+    private final AFDateTimeConverter dateTimeConverter = AFDateTimeConverter.utc();
+    private Path input;
+
+    @Before
+    public void setUp() throws IOException {
+        input = Files.createTempFile("mapped-reader-test", ".csv");
+        Files.write(input, (HEADER + ROWS).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(input);
+    }
+
+    @Test
+    public void matchesCSVUtilForEveryChunkSize() throws IOException {
+        List<String> expected = parsed(1, row -> true);
+        // Rows start on the line of their first field, after the header, quoted line breaks and empty lines.
+        assertEquals(Arrays.asList(2L, 4L, 9L, 13L, 14L, 15L), expected.stream()
+                .map(line -> Long.parseLong(line.substring(line.lastIndexOf('|') + 1)))
+                .collect(Collectors.toList()));
+        for (long chunkBytes = 1; chunkBytes <= Files.size(input); chunkBytes++) {
+            assertEquals("chunk bytes " + chunkBytes, expected, mapped(chunkBytes, 1, row -> true));
+        }
+    }
+
+    @Test
+    public void matchesCSVUtilFromFirstRowAndWithRowFilter() throws IOException {
+        LongPredicate odd = row -> row % 2 == 1;
+        for (long firstRow = 1; firstRow <= 9; firstRow++) {
+            List<String> expected = parsed(firstRow, odd);
+            for (long chunkBytes : Arrays.asList(1L, 17L, 64L, 1L << 20)) {
+                assertEquals("first row " + firstRow + ", chunk bytes " + chunkBytes, expected,
+                        mapped(chunkBytes, firstRow, odd));
+            }
+        }
+    }
+
+    @Test
+    public void rejectsBareCarriageReturn() throws IOException {
+        Files.write(input, (HEADER + "install,2023/5/1 7:01,gclid-1,,1,USD\rinstall,2023/5/1 7:02,gclid-2,,2,USD\n")
+                .getBytes(StandardCharsets.UTF_8));
+        try (Stream<AFConversionRecord> stream = MappedAppsFlyerReader.streamAppsFlyerCSV(input.toString(), 2, 1L,
+                1, row -> true, new AFRowFilter(), dateTimeConverter, ParallelCSVReader.ChunkListener.NONE)) {
+            assertThrows(RuntimeException.class, () -> stream.count());
+        }
+    }
+
+    // Resumes at the row before firstRow, as the journal does after a restart, so the sequential reader's line count
+    // starts mid-file.
+    private List<String> parsed(long firstRow, LongPredicate rowFilter) {
+        long offset = 0;
+        if (firstRow > 1) {
+            try (Stream<CSVRecord> records = CSVUtil.streamAppsFlyerCSV(input.toString())) {
+                offset = records.skip(firstRow - 2).findFirst().map(CSVRecord::getCharacterPosition).orElse(0L);
+            }
+        }
+        AFRowFilter eventFilter = new AFRowFilter();
+        try (Stream<AFConversionRecord> records = CSVUtil.streamAppsFlyerCSV(input.toString(), offset, firstRow - 1,
+                record -> record.getRecordNumber() >= firstRow && rowFilter.test(record.getRecordNumber())
+                        && eventFilter.test(record),
+                (record, sourceLine) -> AFConversionRecord.map(record, dateTimeConverter, sourceLine))) {
+            return records.map(MappedAppsFlyerReaderTest::describe).collect(Collectors.toList());
+        }
+    }
+
+    // Also checks that the chunks reported to the listener account for every record.
+    private List<String> mapped(long chunkBytes, long firstRow, LongPredicate rowFilter) {
+        LongAdder reported = new LongAdder();
+        List<String> records;
+        try (Stream<AFConversionRecord> stream = MappedAppsFlyerReader.streamAppsFlyerCSV(input.toString(), 3,
+                chunkBytes, firstRow, rowFilter, new AFRowFilter(), dateTimeConverter,
+                (nanos, chunkRecords) -> reported.add(chunkRecords))) {
+            records = stream.map(MappedAppsFlyerReaderTest::describe).collect(Collectors.toList());
+        }
+        assertEquals(records.size(), reported.sum());
+        return records;
+    }
+
+    private static String describe(AFConversionRecord record) {
+        return String.join("|", record.getEventName(), record.getGCLID(), record.getWBRAID(),
+                String.valueOf(record.getValue()), record.getCurrencyCode(), record.getConversionDateTime(),
+                String.valueOf(record.getSourceRow()), String.valueOf(record.getSourceOffset()),
+                String.valueOf(record.getSourceLine()));
+    }
+}
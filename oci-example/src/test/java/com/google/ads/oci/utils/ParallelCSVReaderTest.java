@@ -0,0 +1,81 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ads.oci.utils;
+
+import com.google.ads.oci.models.AFConversionRecord;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelCSVReaderTest {
+    private static final String CSV = "Event Name,Event Time,Sub Param 1,Sub Param 3,Event Value,Event Revenue Currency\n"
+            + "install,2023/5/1 7:01,\"gclid\r\n1\",,1,USD\r\n"
+            + "\n"
+            + "install,2023/5/1 7:02,gclid-2,,2,EUR\n"
+            + "install,2023/5/1 7:03,\"g\n\n3\",,3,USD\n"
+            + "install,2023/5/1 7:04,gclid-4,,4,USD\n";
+
+    private final AFDateTimeConverter dateTimeConverter = AFDateTimeConverter.utc();
+    private Path input;
+
+    @Before
+    public void setUp() throws IOException {
+        input = Files.createTempFile("parallel-reader-test", ".csv");
+        Files.write(input, CSV.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(input);
+    }
+
+    @Test
+    public void matchesCSVUtilForEveryChunkSize() throws IOException {
+        List<String> expected;
+        try (Stream<String> records = CSVUtil.streamAppsFlyerCSV(input.toString(), 0, 0, record -> true,
+                (record, sourceLine) -> describe(record, sourceLine))) {
+            expected = records.collect(Collectors.toList());
+        }
+        assertEquals(4, expected.size());
+        assertEquals("2|122|5|gclid-2", expected.get(1));
+        assertEquals("4|196|9|gclid-4", expected.get(3));
+        for (long chunkBytes = 1; chunkBytes <= Files.size(input); chunkBytes++) {
+            try (Stream<String> records = ParallelCSVReader.streamAppsFlyerCSV(input.toString(), 3, chunkBytes, 1,
+                    record -> true, (record, sourceLine) -> Optional.of(describe(record, sourceLine)),
+                    ParallelCSVReader.ChunkListener.NONE)) {
+                assertEquals("chunk bytes " + chunkBytes, expected, records.collect(Collectors.toList()));
+            }
+        }
+    }
+
+    private String describe(CSVRecord record, long sourceLine) {
+        AFConversionRecord conversion = AFConversionRecord.map(record, dateTimeConverter, sourceLine);
+        return conversion.getSourceRow() + "|" + conversion.getSourceOffset() + "|" + conversion.getSourceLine()
+                + "|" + conversion.getGCLID();
+    }
+}